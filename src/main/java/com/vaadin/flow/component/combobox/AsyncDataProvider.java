@@ -0,0 +1,307 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.DataProviderListener;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableFunction;
+import com.vaadin.flow.function.SerializableSupplier;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * A data provider which can load items from the actual data provider in a
+ * background thread, and answers the following queries of the data
+ * communicator from the loaded items. Queries which are not covered by the
+ * loaded items are delegated to the actual data provider.
+ *
+ * @param <T>
+ *            the type of the items
+ * @param <F>
+ *            the type of the filter
+ * @author Vaadin Ltd
+ */
+class AsyncDataProvider<T, F> implements DataProvider<T, F> {
+
+    /**
+     * Items loaded in the background for a filter string, starting from an
+     * offset, and the count of all the items matching the filter.
+     *
+     * @param <T>
+     *            the type of the items
+     */
+    static final class LoadResult<T> implements Serializable {
+        private final String filter;
+        private final int offset;
+        private final List<T> items;
+        private final int size;
+
+        private LoadResult(String filter, int offset, List<T> items,
+                int size) {
+            this.filter = filter;
+            this.offset = offset;
+            this.items = items;
+            this.size = size;
+        }
+
+        /**
+         * Gets the count of all the items matching the filter.
+         *
+         * @return the count of the items
+         */
+        int getSize() {
+            return size;
+        }
+    }
+
+    private final DataProvider<T, F> delegate;
+    private final SerializableFunction<String, F> filterConverter;
+    private final SerializableSupplier<String> filterText;
+
+    private LoadResult<T> result;
+
+    /**
+     * Creates a new asynchronous data provider.
+     *
+     * @param delegate
+     *            the actual data provider, not <code>null</code>
+     * @param filterConverter
+     *            the function converting filter strings to the filter type of
+     *            the data provider, not <code>null</code>
+     * @param filterText
+     *            the supplier of the filter string which the filter of the
+     *            queries is converted from, not <code>null</code>
+     */
+    AsyncDataProvider(DataProvider<T, F> delegate,
+            SerializableFunction<String, F> filterConverter,
+            SerializableSupplier<String> filterText) {
+        this.delegate = delegate;
+        this.filterConverter = filterConverter;
+        this.filterText = filterText;
+    }
+
+    /**
+     * Loads the items of the given range with the given executor. The count of
+     * the items is also loaded, unless it is already known for the filter and
+     * the actual data provider counts the items exactly. The result is not
+     * used before it is passed to {@link #apply(LoadResult)}.
+     * <p>
+     * Cancelling the returned future cancels the {@link CancellationToken}
+     * passed to the callback of a {@link CancellableCallbackDataProvider}, or
+     * the pending stages of a {@link CompletionStageDataProvider}, and the
+     * items are not fetched if the future is cancelled before that.
+     *
+     * @param filter
+     *            the filter string
+     * @param offset
+     *            the index of the first item to load
+     * @param end
+     *            the index after the last item to load
+     * @param executor
+     *            the executor to load the items with, or <code>null</code> if
+     *            the actual data provider is non-blocking
+     * @return a future completed with the loaded items
+     */
+    CompletableFuture<LoadResult<T>> load(String filter, int offset, int end,
+            Executor executor) {
+        F convertedFilter = filterConverter.apply(filter);
+        Integer knownSize = hasExactSize() && result != null
+                && Objects.equals(result.filter, filter) ? result.size : null;
+        CancellationToken cancellation = new CancellationToken();
+        CompletableFuture<LoadResult<T>> future;
+        if (isNonBlocking()) {
+            future = loadNonBlocking(filter, (String) convertedFilter, offset,
+                    end, knownSize, cancellation);
+        } else {
+            future = CompletableFuture.supplyAsync(() -> {
+                int size = knownSize != null ? knownSize
+                        : delegate.size(new Query<>(convertedFilter));
+                int limit = Math.max(0, Math.min(end, size) - offset);
+                if (limit == 0 || cancellation.isCancelled()) {
+                    return new LoadResult<>(filter, offset,
+                            Collections.emptyList(), size);
+                }
+                List<T> items = fetch(
+                        new Query<>(offset, limit, null, null,
+                                convertedFilter),
+                        cancellation).collect(Collectors.toList());
+                return new LoadResult<>(filter, offset, items,
+                        endSize(offset, limit, items, size));
+            }, executor);
+        }
+        future.whenComplete((loaded, error) -> {
+            if (future.isCancelled()) {
+                cancellation.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Gets whether the actual data provider returns completion stages, in
+     * which case items can be loaded without an executor.
+     *
+     * @return {@code true} if no thread is blocked while loading items,
+     *         {@code false} otherwise
+     */
+    boolean isNonBlocking() {
+        return delegate instanceof CompletionStageDataProvider;
+    }
+
+    /**
+     * Makes the following queries use the given loaded items. Must be called
+     * while holding the session lock.
+     *
+     * @param loaded
+     *            the loaded items
+     */
+    void apply(LoadResult<T> loaded) {
+        result = loaded;
+    }
+
+    /**
+     * Forgets the loaded items.
+     */
+    void clear() {
+        result = null;
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return delegate.isInMemory();
+    }
+
+    @Override
+    public int size(Query<T, F> query) {
+        if (isLoaded() && hasExactSize()) {
+            return result.size;
+        }
+        return delegate.size(query);
+    }
+
+    @Override
+    public Stream<T> fetch(Query<T, F> query) {
+        if (isLoaded() && query.getOffset() >= result.offset) {
+            int loadedEnd = result.offset + result.items.size();
+            int end = query.getOffset() + query.getLimit();
+            if (end <= loadedEnd || loadedEnd >= result.size) {
+                int from = Math.min(query.getOffset(), loadedEnd)
+                        - result.offset;
+                int to = Math.min(end, loadedEnd) - result.offset;
+                return new ArrayList<>(result.items.subList(from, to))
+                        .stream();
+            }
+        }
+        return delegate.fetch(query);
+    }
+
+    @Override
+    public void refreshItem(T item) {
+        delegate.refreshItem(item);
+    }
+
+    @Override
+    public void refreshAll() {
+        delegate.refreshAll();
+    }
+
+    @Override
+    public Registration addDataProviderListener(
+            DataProviderListener<T> listener) {
+        return delegate.addDataProviderListener(listener);
+    }
+
+    @Override
+    public Object getId(T item) {
+        return delegate.getId(item);
+    }
+
+    /**
+     * Gets the actual data provider.
+     *
+     * @return the actual data provider
+     */
+    DataProvider<T, F> getDelegate() {
+        return delegate;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<LoadResult<T>> loadNonBlocking(String filter,
+            String convertedFilter, int offset, int end, Integer knownSize,
+            CancellationToken cancellation) {
+        CompletionStageDataProvider<T> provider = (CompletionStageDataProvider<T>) (DataProvider<T, ?>) delegate;
+        CompletableFuture<Integer> size = knownSize != null
+                ? CompletableFuture.completedFuture(knownSize)
+                : provider.sizeAsync(new Query<>(convertedFilter));
+        cancellation.addCancelListener(() -> size.cancel(false));
+        return size.<LoadResult<T>> thenCompose(count -> {
+            int limit = Math.max(0, Math.min(end, count) - offset);
+            if (limit == 0 || cancellation.isCancelled()) {
+                return CompletableFuture.completedFuture(new LoadResult<>(
+                        filter, offset, Collections.emptyList(), count));
+            }
+            CompletableFuture<List<T>> items = provider.fetchAsync(
+                    new Query<>(offset, limit, null, null, convertedFilter));
+            cancellation.addCancelListener(() -> items.cancel(false));
+            return items.thenApply(fetched -> new LoadResult<>(filter,
+                    offset, fetched, endSize(offset, limit, fetched, count)));
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Stream<T> fetch(Query<T, F> query, CancellationToken cancellation) {
+        if (delegate instanceof CancellableCallbackDataProvider) {
+            // The filter type of a cancellable data provider is String
+            Query<T, String> stringQuery = (Query<T, String>) (Query<T, ?>) query;
+            return ((CancellableCallbackDataProvider<T>) delegate)
+                    .fetch(stringQuery, cancellation);
+        }
+        return delegate.fetch(query);
+    }
+
+    /**
+     * Gets whether the count of the actual data provider stays the same until
+     * its data changes. The count of a data provider without an exact count
+     * grows as items are fetched, so it is queried again each time.
+     */
+    private boolean hasExactSize() {
+        return !(delegate instanceof FetchWithSizeDataProvider);
+    }
+
+    /**
+     * Gets the count of the items, which ends at the loaded items if fewer
+     * items than requested were loaded.
+     */
+    private static int endSize(int offset, int limit, List<?> items,
+            int size) {
+        return items.size() < limit ? offset + items.size() : size;
+    }
+
+    private boolean isLoaded() {
+        return result != null
+                && Objects.equals(result.filter, filterText.get());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.stream.Stream;
+
+import com.vaadin.flow.component.combobox.ComboBox.CancellableFetchItemsCallback;
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableFunction;
+
+/**
+ * A data provider fetching the items with a
+ * {@link CancellableFetchItemsCallback}. Fetches done through
+ * {@link #fetch(Query, CancellationToken)} can be cancelled with the given
+ * token, while the other fetches get a token which is never cancelled.
+ *
+ * @param <T>
+ *            the type of the items
+ * @author Vaadin Ltd
+ */
+class CancellableCallbackDataProvider<T>
+        extends AbstractBackEndDataProvider<T, String> {
+
+    private final CancellableFetchItemsCallback<T> fetchItems;
+    private final SerializableFunction<String, Integer> sizeCallback;
+
+    /**
+     * Creates a new data provider.
+     *
+     * @param fetchItems
+     *            the callback for fetching the items, not <code>null</code>
+     * @param sizeCallback
+     *            the callback for getting the count of the items, not
+     *            <code>null</code>
+     */
+    CancellableCallbackDataProvider(CancellableFetchItemsCallback<T> fetchItems,
+            SerializableFunction<String, Integer> sizeCallback) {
+        this.fetchItems = fetchItems;
+        this.sizeCallback = sizeCallback;
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<T, String> query) {
+        return sizeCallback.apply(query.getFilter().orElse(""));
+    }
+
+    @Override
+    protected Stream<T> fetchFromBackEnd(Query<T, String> query) {
+        return fetch(query, new CancellationToken());
+    }
+
+    /**
+     * Fetches the items of the given query, passing the given token to the
+     * callback.
+     *
+     * @param query
+     *            the query defining the items to fetch
+     * @param cancellation
+     *            the token for cancelling the fetch, not <code>null</code>
+     * @return the fetched items
+     */
+    Stream<T> fetch(Query<T, String> query, CancellationToken cancellation) {
+        return fetchItems.fetchItems(query.getFilter().orElse(""),
+                query.getOffset(), query.getLimit(), cancellation);
+    }
+}
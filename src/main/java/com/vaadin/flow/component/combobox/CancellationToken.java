@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vaadin.flow.component.combobox.ComboBox.CancellableFetchItemsCallback;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * Tells a {@link CancellableFetchItemsCallback} that the items it is fetching
+ * are not needed anymore, for example because the user has changed the filter
+ * while the items were being fetched. The callback can check the token between
+ * the steps of a fetch, or add a listener which aborts the running query, for
+ * example by cancelling a JDBC statement, to release the backend resources
+ * early.
+ * <p>
+ * A token is only cancelled for fetches done in the background with
+ * {@link ComboBox#setFetchExecutor(java.util.concurrent.Executor)}, since
+ * otherwise the following requests of the client are not handled before the
+ * fetch completes.
+ *
+ * @author Vaadin Ltd
+ */
+public class CancellationToken implements Serializable {
+
+    private boolean cancelled;
+    private List<Command> listeners;
+
+    /**
+     * Creates a token which is not cancelled.
+     */
+    CancellationToken() {
+    }
+
+    /**
+     * Gets whether the fetch has been cancelled.
+     *
+     * @return {@code true} if the fetched items are not needed anymore,
+     *         {@code false} otherwise
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Adds a listener called when the fetch is cancelled. The listener is
+     * called in the thread cancelling the fetch, which is not the thread
+     * fetching the items, or right away if the fetch has already been
+     * cancelled.
+     *
+     * @param listener
+     *            the listener to add, not <code>null</code>
+     * @return a handle for removing the listener
+     */
+    public Registration addCancelListener(Command listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                if (listeners == null) {
+                    listeners = new ArrayList<>();
+                }
+                listeners.add(listener);
+                return () -> {
+                    synchronized (this) {
+                        if (listeners != null) {
+                            listeners.remove(listener);
+                        }
+                    }
+                };
+            }
+        }
+        listener.execute();
+        return () -> {
+        };
+    }
+
+    /**
+     * Cancels the fetch and calls the cancel listeners, unless already
+     * cancelled.
+     */
+    void cancel() {
+        List<Command> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = listeners;
+            listeners = null;
+        }
+        if (toRun != null) {
+            toRun.forEach(Command::execute);
+        }
+    }
+}
@@ -21,10 +21,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import com.vaadin.flow.component.AttachEvent;
 import com.vaadin.flow.component.ClientCallable;
 import com.vaadin.flow.component.ComponentEventListener;
+import com.vaadin.flow.component.DetachEvent;
 import com.vaadin.flow.component.HasSize;
 import com.vaadin.flow.component.HasValidation;
 import com.vaadin.flow.component.ItemLabelGenerator;
@@ -36,21 +42,27 @@ import com.vaadin.flow.data.provider.ArrayUpdater;
 import com.vaadin.flow.data.provider.ArrayUpdater.Update;
 import com.vaadin.flow.data.provider.CallbackDataProvider;
 import com.vaadin.flow.data.provider.CompositeDataGenerator;
+import com.vaadin.flow.data.provider.DataChangeEvent.DataRefreshEvent;
 import com.vaadin.flow.data.provider.DataCommunicator;
+import com.vaadin.flow.data.provider.DataGenerator;
 import com.vaadin.flow.data.provider.DataKeyMapper;
 import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.DataProviderListener;
 import com.vaadin.flow.data.provider.ListDataProvider;
 import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.renderer.ComponentRenderer;
 import com.vaadin.flow.data.renderer.Renderer;
 import com.vaadin.flow.data.renderer.Rendering;
 import com.vaadin.flow.dom.Element;
 import com.vaadin.flow.function.SerializableBiPredicate;
 import com.vaadin.flow.function.SerializableConsumer;
 import com.vaadin.flow.function.SerializableFunction;
+import com.vaadin.flow.function.ValueProvider;
 import com.vaadin.flow.internal.JsonUtils;
 import com.vaadin.flow.shared.Registration;
 
 import elemental.json.Json;
+import elemental.json.JsonArray;
 import elemental.json.JsonObject;
 import elemental.json.JsonValue;
 
@@ -72,9 +84,9 @@ import elemental.json.JsonValue;
  * the filtering. Also, if you have defined custom filtering logic, with eg.
  * {@link #setItems(ItemFilter, Collection)}, filtering will happen in the
  * server. To enable client-side filtering with larger data sets, you can
- * override the {@code pageSize} to be bigger than the size of your data set.
- * However, then the full data set will be sent to the client immediately and
- * you will lose the benefits of lazy loading.
+ * increase the limit with {@link #setClientSideFilterThreshold(int)}. However,
+ * then the full data set will be sent to the client when the overlay is first
+ * opened and you will lose the benefits of lazy loading.
  *
  * @param <T>
  *            the type of the items to be inserted in the combo box
@@ -112,6 +124,187 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
         public Stream<T> fetchItems(String filter, int offset, int limit);
     }
 
+    /**
+     * A callback method for fetching items, which can be cancelled while
+     * fetching. The callback is provided with a non-null string filter, offset
+     * index, limit and a token telling whether the items are still needed.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     */
+    @FunctionalInterface
+    public interface CancellableFetchItemsCallback<T> extends Serializable {
+
+        /**
+         * Returns a stream of items that match the given filter, limiting the
+         * results with given offset and limit. If the token is cancelled, the
+         * items are not needed anymore, and the callback may stop fetching
+         * them and return any result.
+         *
+         * @param filter
+         *            a non-null filter string
+         * @param offset
+         *            the first index to fetch
+         * @param limit
+         *            the fetched item count
+         * @param cancellation
+         *            the token telling whether the fetch has been cancelled,
+         *            not <code>null</code>
+         * @return stream of items
+         */
+        public Stream<T> fetchItems(String filter, int offset, int limit,
+                CancellationToken cancellation);
+    }
+
+    /**
+     * A callback method for fetching items without blocking the calling
+     * thread. The callback is provided with a non-null string filter, offset
+     * index and limit.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     */
+    @FunctionalInterface
+    public interface AsyncFetchItemsCallback<T> extends Serializable {
+
+        /**
+         * Returns a completion stage of the items that match the given filter,
+         * limiting the results with given offset and limit.
+         *
+         * @param filter
+         *            a non-null filter string
+         * @param offset
+         *            the first index to fetch
+         * @param limit
+         *            the fetched item count
+         * @return a completion stage of the items, not <code>null</code>
+         */
+        public CompletionStage<List<T>> fetchItems(String filter, int offset,
+                int limit);
+    }
+
+    /**
+     * A callback method for fetching items together with their total count
+     * in a single call. The callback is provided with a non-null string
+     * filter, offset index and limit.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     */
+    @FunctionalInterface
+    public interface FetchItemsWithSizeCallback<T> extends Serializable {
+
+        /**
+         * Returns the items that match the given filter, limiting the results
+         * with given offset and limit, and the count of the matching items.
+         *
+         * @param filter
+         *            a non-null filter string
+         * @param offset
+         *            the first index to fetch
+         * @param limit
+         *            the fetched item count
+         * @return the fetched items and their count, not <code>null</code>
+         */
+        public FetchResult<T> fetchItems(String filter, int offset,
+                int limit);
+    }
+
+    /**
+     * The result of a {@link FetchItemsWithSizeCallback}: the fetched items,
+     * and either the total count of the items matching the filter or the
+     * number of items known to exist after the fetched ones.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     */
+    public static final class FetchResult<T> implements Serializable {
+        private final List<T> items;
+        private final int size;
+        private final boolean exactSize;
+
+        private FetchResult(List<T> items, int size, boolean exactSize) {
+            this.items = Objects.requireNonNull(items,
+                    "The items can not be null");
+            if (size < 0) {
+                throw new IllegalArgumentException(
+                        "Size should not be negative.");
+            }
+            this.size = size;
+            this.exactSize = exactSize;
+        }
+
+        /**
+         * Creates a result with the total count of the items matching the
+         * filter, for example one computed with a window function in the
+         * same query.
+         *
+         * @param <T>
+         *            item (bean) type in ComboBox
+         * @param items
+         *            the fetched items, not <code>null</code>
+         * @param totalSize
+         *            the count of all the items matching the filter
+         * @return the fetch result
+         */
+        public static <T> FetchResult<T> withTotalSize(List<T> items,
+                int totalSize) {
+            return new FetchResult<>(items, totalSize, true);
+        }
+
+        /**
+         * Creates a result which tells that there are at least the given
+         * number of items after the fetched ones. For example, a query with
+         * a limit one bigger than requested can tell whether there is at
+         * least one more item. The ComboBox fetches more items when the user
+         * scrolls beyond the known items.
+         *
+         * @param <T>
+         *            item (bean) type in ComboBox
+         * @param items
+         *            the fetched items, not <code>null</code>
+         * @param moreCount
+         *            the number of items known to exist after the fetched
+         *            ones, or {@code 0} if the fetched items are the last ones
+         * @return the fetch result
+         */
+        public static <T> FetchResult<T> withMoreItems(List<T> items,
+                int moreCount) {
+            return new FetchResult<>(items, moreCount, false);
+        }
+
+        /**
+         * Gets the fetched items.
+         *
+         * @return the fetched items, not <code>null</code>
+         */
+        public List<T> getItems() {
+            return items;
+        }
+
+        /**
+         * Gets the total count of the items, or the number of items after the
+         * fetched ones if the size is not exact.
+         *
+         * @see #isExactSize()
+         *
+         * @return the total count or the number of more items
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Gets whether {@link #getSize()} is the total count of the items.
+         *
+         * @return {@code true} if the size is the total count, {@code false}
+         *         if it is the number of items after the fetched ones
+         */
+        public boolean isExactSize() {
+            return exactSize;
+        }
+    }
+
     private class CustomValueRegistration implements Registration {
 
         private Registration delegate;
@@ -134,17 +327,25 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
         }
     }
 
+    /**
+     * Collects the changes of an update and sends them to the connector with
+     * a single call when the update is committed.
+     */
     private final class UpdateQueue implements Update {
-        private List<Runnable> queue = new ArrayList<>();
+        private final int size;
+        private final JsonArray ranges = Json.createArray();
 
         private UpdateQueue(int size) {
-            enqueue("$connector.updateSize", size);
+            this.size = size;
         }
 
         @Override
         public void set(int start, List<JsonValue> items) {
-            enqueue("$connector.set", start,
-                    items.stream().collect(JsonUtils.asArray()));
+            JsonArray range = Json.createArray();
+            range.set(0, start);
+            range.set(1, encodeItems(
+                    items.stream().collect(JsonUtils.asArray())));
+            ranges.set(ranges.length(), range);
         }
 
         @Override
@@ -154,13 +355,15 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
 
         @Override
         public void commit(int updateId) {
-            enqueue("$connector.confirm", updateId);
-            queue.forEach(Runnable::run);
-            queue.clear();
-        }
-
-        private void enqueue(String name, Serializable... arguments) {
-            queue.add(() -> getElement().callFunction(name, arguments));
+            int clientSize = size;
+            if (dataProvider instanceof FetchWithSizeDataProvider) {
+                // The data communicator is given an unknown size, so that the
+                // size can grow without resending the items
+                clientSize = ((FetchWithSizeDataProvider<?>) dataProvider)
+                        .getKnownSize();
+            }
+            getElement().callFunction("$connector.applyUpdate", clientSize,
+                    ranges, updateId);
         }
     }
 
@@ -176,9 +379,37 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
         @Override
         public void initialize() {
             initConnector();
+            if (preloadFirstPage) {
+                // Preloaded in the reset step, so that a reset scheduled later
+                // in the same request does not discard the first page
+                preloadPending = true;
+                reset();
+            }
         }
     };
 
+    /**
+     * Strategies for evaluating whether the data set is small enough to be
+     * filtered in the client-side.
+     *
+     * @see ComboBox#setSizeStrategy(SizeStrategy)
+     */
+    public enum SizeStrategy {
+        /**
+         * Fetches at most one item more than the client-side filter threshold
+         * from the data provider each time the data provider is updated. The
+         * items are not counted with {@link DataProvider#size(Query)}.
+         */
+        PROBE,
+
+        /**
+         * Counts the items with {@link DataProvider#size(Query)} and reuses
+         * the count until the data provider is set again or all of its data
+         * is refreshed with {@link DataProvider#refreshAll()}.
+         */
+        CACHED_COUNT
+    }
+
     /**
      * Predicate to check {@link ComboBox} items against user typed strings.
      */
@@ -192,11 +423,68 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
 
     private Renderer<T> renderer;
     private boolean renderScheduled;
+    private boolean selectedItemUpdateScheduled;
+    private boolean resetScheduled;
+    private boolean preloadPending;
 
     private DataCommunicator<T> dataCommunicator;
+    private ItemIdKeyMapper<T> itemKeyMapper;
+    private ValueProvider<T, ?> itemIdProvider;
+    private DataProvider<T, ?> dataProvider;
     private final CompositeDataGenerator<T> dataGenerator = new CompositeDataGenerator<>();
     private Registration dataGeneratorRegistration;
 
+    private final DataGenerator<T> labelGenerator = (item,
+            jsonObject) -> jsonObject.put("label", generateLabel(item));
+
+    /**
+     * Generates the item data for the data communicator, using the item JSON
+     * cache when one is in use. Without a renderer only the label is needed,
+     * so the composite generator is skipped.
+     */
+    private final DataGenerator<T> communicatorDataGenerator = new DataGenerator<T>() {
+        @Override
+        public void generateData(T item, JsonObject jsonObject) {
+            DataGenerator<T> generator = isLabelOnly() ? labelGenerator
+                    : dataGenerator;
+            if (usedItemJsonCache == null
+                    || renderer instanceof ComponentRenderer) {
+                generator.generateData(item, jsonObject);
+            } else {
+                usedItemJsonCache.generateData(dataProvider, item, jsonObject,
+                        generator);
+            }
+            if (itemKeyMapper.isIdBased()) {
+                // Replaces the key generated by the data communicator
+                jsonObject.put("key", itemKeyMapper.key(item));
+            }
+        }
+
+        @Override
+        public void refreshData(T item) {
+            dataGenerator.refreshData(item);
+        }
+
+        @Override
+        public void destroyData(T item) {
+            dataGenerator.destroyData(item);
+            if (itemKeyMapper.isIdBased()) {
+                itemKeyMapper.remove(item);
+            }
+        }
+
+        @Override
+        public void destroyAllData() {
+            dataGenerator.destroyAllData();
+            if (itemKeyMapper.isIdBased()) {
+                itemKeyMapper.removeAll();
+            }
+        }
+    };
+
+    private ItemJsonCache itemJsonCache;
+    private ItemJsonCache usedItemJsonCache;
+
     private Element template;
 
     private int customValueListenersCount;
@@ -205,20 +493,61 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
         // Just ignore when setDataProvider has not been called
     };
 
+    // The filter last pushed into the data communicator, used for avoiding
+    // a reset of the already sent range when the client extends the range
+    private String lastFilter;
+    private int requestedRangeEnd;
+    // The end of the range last requested by the client, not counting the
+    // prefetched pages
+    private int demandedRangeEnd;
+
     private enum UserProvidedFilter {
         UNDECIDED, YES, NO
     }
 
     private UserProvidedFilter userProvidedFilter = UserProvidedFilter.UNDECIDED;
 
+    private boolean indexedFiltering;
+    private boolean compactItemEncoding;
+
+    private boolean forceServerSideFiltering;
+    private Integer clientSideFilterThreshold;
+
+    private SizeStrategy sizeStrategy = SizeStrategy.PROBE;
+    private Integer sizeHint;
+    private int cachedSize = -1;
+    private ItemLabelIndex<T> labelIndex;
+    private ItemLabelIndex<T> pendingLabelIndex;
+
+    private PageCache pageCache;
+    private PageCache usedPageCache;
+    private ItemFilter<T> incrementalItemFilter;
+
+    // Not serializable, so items are fetched synchronously after
+    // deserialization
+    private transient Executor fetchExecutor;
+    private AsyncDataProvider<T, ?> asyncDataProvider;
+    private transient CompletableFuture<?> pendingFetch;
+    private int firstChunkSize;
+    private boolean preloadFirstPage;
+
+    // Listeners of the current data provider, which are added to it only
+    // while this ComboBox is attached so that it doesn't keep this ComboBox
+    // reachable after being swapped out or detached
+    private final List<DataProviderListener<T>> dataProviderListeners = new ArrayList<>();
+    private final List<Registration> dataProviderRegistrations = new ArrayList<>();
+    private boolean dataProviderListenersRemovedOnDetach;
+    private RefiningDataProvider<T, ?> refiningDataProvider;
+    private PageCachingDataProvider<T, ?> pageCachingDataProvider;
+
     /**
      * Creates an empty combo box with the defined page size for lazy loading.
      * <p>
      * The default page size is 50.
      * <p>
-     * The page size is also the largest number of items that can support
-     * client-side filtering. If you provide more items than the page size, the
-     * component has to fall back to server-side filtering.
+     * By default, the page size is also the largest number of items that can
+     * support client-side filtering. If you provide more items than the page
+     * size, the component has to fall back to server-side filtering.
      * 
      * @see {@link #setPageSize(int)}
      * 
@@ -228,8 +557,7 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
     public ComboBox(int pageSize) {
         super(null, null, String.class, ComboBox::presentationToModel,
                 ComboBox::modelToPresentation);
-        dataGenerator.addDataGenerator((item, jsonObject) -> jsonObject
-                .put("label", generateLabel(item)));
+        dataGenerator.addDataGenerator(labelGenerator);
 
         setItemValuePath("key");
         setItemIdPath("key");
@@ -292,7 +620,18 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
         if (presentation == null || comboBox.dataCommunicator == null) {
             return comboBox.getEmptyValue();
         }
-        return comboBox.getKeyMapper().get(presentation);
+        T model = comboBox.getKeyMapper().get(presentation);
+        if (model == null) {
+            // An id-based key stays valid for the selected item after the
+            // item itself is no longer active
+            T value = comboBox.getValue();
+            if (value != null && comboBox.itemKeyMapper.isIdBased()
+                    && presentation
+                            .equals(comboBox.getKeyMapper().key(value))) {
+                return value;
+            }
+        }
+        return model;
     }
 
     private static <T> String modelToPresentation(ComboBox<T> comboBox,
@@ -317,11 +656,6 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
         }
         super.setValue(value);
 
-        DataKeyMapper<T> keyMapper = getKeyMapper();
-        if (value != null && keyMapper.has(value)) {
-            value = keyMapper.get(keyMapper.key(value));
-        }
-
         if (value == null) {
             getElement().setProperty("selectedItem", null);
             getElement().setProperty("value", "");
@@ -329,18 +663,41 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
             return;
         }
 
-        // This ensures that the selection works even with lazy loading when the
-        // item is not yet loaded
-        JsonObject json = Json.createObject();
-        json.put("key", keyMapper.key(value));
-        dataGenerator.generateData(value, json);
-        setSelectedItem(json);
+        scheduleSelectedItemUpdate();
+    }
+
+    /**
+     * Sets whether the items should be sent to the client in a compact,
+     * column-oriented format. Instead of a JSON object with the same property
+     * names for every item, the items are sent as one array of values per
+     * property, which the client expands back to objects. This makes the
+     * responses smaller and faster to parse, especially with large page sizes.
+     * <p>
+     * Compact item encoding is disabled by default. Items without a
+     * {@link #setRenderer(Renderer) renderer} are always sent in the compact
+     * format, since they only have a key and a label.
+     *
+     * @param compactItemEncoding
+     *            {@code true} to send the items in the compact format,
+     *            {@code false} to send them as objects
+     */
+    public void setCompactItemEncoding(boolean compactItemEncoding) {
+        this.compactItemEncoding = compactItemEncoding;
+    }
 
-        // Workaround for property not updating in certain scenario
-        // https://github.com/vaadin/flow/issues/4862
-        runBeforeClientResponse(
-                ui -> ui.getPage().executeJavaScript("$0.value=$1",
-                        getElement(), getElement().getProperty("value")));
+    /**
+     * Gets whether the items are sent to the client in a compact,
+     * column-oriented format. Items without a {@link #setRenderer(Renderer)
+     * renderer} are sent in the compact format even if this is
+     * {@code false}.
+     *
+     * @see #setCompactItemEncoding(boolean)
+     *
+     * @return {@code true} if compact item encoding is enabled, {@code false}
+     *         otherwise
+     */
+    public boolean isCompactItemEncoding() {
+        return compactItemEncoding;
     }
 
     /**
@@ -373,9 +730,9 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
      * {@link #setItemLabelGenerator(ItemLabelGenerator)}.
      * <p>
      * Filtering will be handled in the client-side if the size of the data set
-     * is less than the page size. To force client-side filtering with a larger
-     * data set (at the cost of increased network traffic), you can increase the
-     * page size with {@link #setPageSize(int)}.
+     * is not larger than the page size. To force client-side filtering with a
+     * larger data set (at the cost of increased network traffic), you can
+     * increase the limit with {@link #setClientSideFilterThreshold(int)}.
      */
     @Override
     public void setItems(Collection<T> items) {
@@ -388,8 +745,9 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
      * <p>
      * Note that defining a custom filter will force the component to make
      * server roundtrips to handle the filtering. Otherwise it can handle
-     * filtering in the client-side, if the size of the data set is less than
-     * the {@link #setPageSize(int) pageSize}.
+     * filtering in the client-side, if the size of the data set is not larger
+     * than the {@link #setClientSideFilterThreshold(int) client-side filter
+     * threshold}.
      * 
      * @param itemFilter
      *            filter to check if an item is shown when user typed some text
@@ -409,8 +767,9 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
      * <p>
      * Note that defining a custom filter will force the component to make
      * server roundtrips to handle the filtering. Otherwise it can handle
-     * filtering in the client-side, if the size of the data set is less than
-     * the {@link #setPageSize(int) pageSize}.
+     * filtering in the client-side, if the size of the data set is not larger
+     * than the {@link #setClientSideFilterThreshold(int) client-side filter
+     * threshold}.
      *
      * @param itemFilter
      *            filter to check if an item is shown when user typed some text
@@ -466,14 +825,29 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
             userProvidedFilter = UserProvidedFilter.YES;
         }
 
+        removeDataProviderListeners();
+        dataProviderListeners.clear();
+        dataProviderListenersRemovedOnDetach = false;
+        // Set by setDataProvider(ListDataProvider) with indexed filtering
+        labelIndex = pendingLabelIndex;
+        pendingLabelIndex = null;
+        refiningDataProvider = null;
+        pageCachingDataProvider = null;
+        cancelPendingFetch();
+
         if (dataCommunicator == null) {
-            dataCommunicator = new DataCommunicator<>(dataGenerator,
-                    arrayUpdater, data -> getElement()
-                            .callFunction("$connector.updateData", data),
+            dataCommunicator = new DataCommunicator<>(
+                    communicatorDataGenerator, arrayUpdater,
+                    data -> getElement().callFunction("$connector.updateData",
+                            encodeItems(data)),
                     getElement().getNode());
+            itemKeyMapper = new ItemIdKeyMapper<>(
+                    dataCommunicator.getKeyMapper());
+            itemKeyMapper.setIdProvider(itemIdProvider);
         }
 
-        getElement().callFunction("$connector.reset");
+        // The connector is reset by dataProviderUpdated() below, once per
+        // response
         scheduleRender();
         setValue(null);
 
@@ -485,30 +859,164 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
             return filterConverter.apply(filterText);
         };
 
+        this.dataProvider = dataProvider;
+        DataProvider<T, C> communicatorDataProvider = dataProvider;
+        asyncDataProvider = null;
+        if (fetchExecutor != null
+                || dataProvider instanceof CompletionStageDataProvider) {
+            AsyncDataProvider<T, C> loadingDataProvider = new AsyncDataProvider<>(
+                    dataProvider, convertOrNull, () -> lastFilter);
+            addDataProviderListener(e -> {
+                if (!(e instanceof DataRefreshEvent)) {
+                    loadingDataProvider.clear();
+                }
+            });
+            asyncDataProvider = loadingDataProvider;
+            communicatorDataProvider = loadingDataProvider;
+        }
+        usedPageCache = pageCache;
+        if (pageCache != null) {
+            PageCachingDataProvider<T, C> cachingDataProvider = new PageCachingDataProvider<>(
+                    communicatorDataProvider, pageCache, filterConverter,
+                    () -> lastFilter);
+            // The cache is invalidated right away, before the data is fetched
+            // again when the data communicator is flushed
+            addDataProviderListener(cachingDataProvider::onDataChange);
+            pageCachingDataProvider = cachingDataProvider;
+            communicatorDataProvider = cachingDataProvider;
+        }
+        if (labelIndex != null) {
+            communicatorDataProvider = new IndexedDataProvider<>(
+                    communicatorDataProvider, labelIndex);
+        }
+        if (incrementalItemFilter != null) {
+            RefiningDataProvider<T, C> refiningProvider = new RefiningDataProvider<>(
+                    communicatorDataProvider, incrementalItemFilter,
+                    () -> lastFilter, () -> Math.max(getPageSize(),
+                            getClientSideFilterThreshold()));
+            addDataProviderListener(e -> refiningProvider.clear());
+            refiningDataProvider = refiningProvider;
+            communicatorDataProvider = refiningProvider;
+        }
+        usedItemJsonCache = itemJsonCache;
+        if (usedItemJsonCache != null) {
+            ItemJsonCache cache = usedItemJsonCache;
+            addDataProviderListener(e -> {
+                if (e instanceof DataRefreshEvent) {
+                    cache.invalidate(dataProvider, dataProvider
+                            .getId(((DataRefreshEvent<T>) e).getItem()));
+                } else {
+                    cache.invalidate(dataProvider);
+                }
+            });
+        }
+
         SerializableConsumer<C> providerFilterSlot = dataCommunicator
-                .setDataProvider(dataProvider,
+                .setDataProvider(communicatorDataProvider,
                         convertOrNull.apply(getFilterString()));
 
-        filterSlot = filter -> providerFilterSlot
-                .accept(convertOrNull.apply(filter));
+        lastFilter = getFilterString();
+        filterSlot = filter -> {
+            if (!Objects.equals(filter, lastFilter)) {
+                providerFilterSlot.accept(convertOrNull.apply(filter));
+                lastFilter = filter;
+            }
+        };
 
-        boolean shouldForceServerSideFiltering = userProvidedFilter == UserProvidedFilter.YES;
+        forceServerSideFiltering = userProvidedFilter == UserProvidedFilter.YES;
 
-        dataProvider.addDataProviderListener(
-                e -> dataProviderUpdated(shouldForceServerSideFiltering));
-        dataProviderUpdated(shouldForceServerSideFiltering);
+        cachedSize = -1;
+        addDataProviderListener(e -> {
+            if (!(e instanceof DataRefreshEvent)) {
+                cachedSize = -1;
+            }
+            dataProviderUpdated();
+        });
+        dataProviderUpdated();
 
         userProvidedFilter = UserProvidedFilter.UNDECIDED;
     }
 
-    private void dataProviderUpdated(boolean forceServerSideFiltering) {
-        int size = getDataProvider().size(new Query<>());
-        setClientSideFilter(
-                !forceServerSideFiltering && size <= getPageSizeDouble());
+    @Override
+    protected void onAttach(AttachEvent attachEvent) {
+        super.onAttach(attachEvent);
+        dataProviderListeners.forEach(listener -> dataProviderRegistrations
+                .add(dataProvider.addDataProviderListener(listener)));
+        if (dataProviderListenersRemovedOnDetach) {
+            dataProviderListenersRemovedOnDetach = false;
+            // The data may have changed while the listeners were removed
+            cachedSize = -1;
+            if (asyncDataProvider != null) {
+                asyncDataProvider.clear();
+            }
+            if (refiningDataProvider != null) {
+                refiningDataProvider.clear();
+            }
+            if (labelIndex != null) {
+                labelIndex.refreshAll();
+            }
+            if (usedPageCache != null) {
+                usedPageCache.invalidate(dataProvider);
+            }
+            if (usedItemJsonCache != null) {
+                usedItemJsonCache.invalidate(dataProvider);
+            }
+            dataProviderUpdated();
+        }
+    }
+
+    @Override
+    protected void onDetach(DetachEvent detachEvent) {
+        super.onDetach(detachEvent);
+        cancelPendingFetch();
+        dataProviderListenersRemovedOnDetach = !dataProviderRegistrations
+                .isEmpty();
+        removeDataProviderListeners();
+    }
+
+    /**
+     * Adds a listener to the current data provider, right away if this
+     * ComboBox is attached and otherwise when it is attached.
+     */
+    private void addDataProviderListener(DataProviderListener<T> listener) {
+        dataProviderListeners.add(listener);
+        if (getElement().getNode().isAttached()) {
+            dataProviderRegistrations
+                    .add(dataProvider.addDataProviderListener(listener));
+        }
+    }
+
+    private void removeDataProviderListeners() {
+        dataProviderRegistrations.forEach(Registration::remove);
+        dataProviderRegistrations.clear();
+    }
+
+    private void dataProviderUpdated() {
+        // The size is not evaluated at all when filtering in the server is
+        // forced anyway
+        setClientSideFilter(!forceServerSideFiltering
+                && isSizeAtMost(getClientSideFilterThreshold()));
 
         reset();
     }
 
+    private boolean isSizeAtMost(int limit) {
+        if (sizeHint != null) {
+            return sizeHint <= limit;
+        }
+        if (sizeStrategy == SizeStrategy.CACHED_COUNT) {
+            if (cachedSize < 0) {
+                cachedSize = getDataProvider().size(new Query<>());
+            }
+            return cachedSize <= limit;
+        }
+        // Saturate, the threshold may be Integer.MAX_VALUE
+        int probeLimit = limit == Integer.MAX_VALUE ? limit : limit + 1;
+        return getDataProvider()
+                .fetch(new Query<>(0, probeLimit, null, null, null))
+                .count() <= limit;
+    }
+
     /**
      * Sets a list data provider as the data provider of this combo box.
      * <p>
@@ -518,9 +1026,13 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
      * {@link #setItemLabelGenerator(ItemLabelGenerator)}.
      * <p>
      * Filtering will be handled in the client-side if the size of the data set
-     * is less than the page size. To force client-side filtering with a larger
-     * data set (at the cost of increased network traffic), you can increase the
-     * page size with {@link #setPageSize(int)}.
+     * is not larger than the page size. To force client-side filtering with a
+     * larger data set (at the cost of increased network traffic), you can
+     * increase the limit with {@link #setClientSideFilterThreshold(int)}.
+     * <p>
+     * If {@link #setIndexedFiltering(boolean) indexed filtering} is enabled,
+     * the labels are indexed once and the server-side filtering is answered
+     * from the index.
      *
      * @param listDataProvider
      *            the list data provider to use, not <code>null</code>
@@ -530,6 +1042,17 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
             userProvidedFilter = UserProvidedFilter.NO;
         }
 
+        if (indexedFiltering) {
+            Objects.requireNonNull(listDataProvider,
+                    "List data provider cannot be null");
+            ItemLabelIndex<T> index = new ItemLabelIndex<>(listDataProvider,
+                    this::generateLabel, this::getLocale);
+            pendingLabelIndex = index;
+            setDataProvider(listDataProvider, index::createFilter);
+            addDataProviderListener(index::onDataChange);
+            return;
+        }
+
         // Cannot use the case insensitive contains shorthand from
         // ListDataProvider since it wouldn't react to locale changes
         ItemFilter<T> defaultItemFilter = (item,
@@ -539,6 +1062,102 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
         setDataProvider(defaultItemFilter, listDataProvider);
     }
 
+    /**
+     * Sets whether the default filtering of list data providers should use an
+     * index of the item labels. When enabled, the lower case labels are
+     * computed once and indexed by their substrings, so that filtering in the
+     * server doesn't need to convert the label of every item each time the
+     * user types. The index is updated when the data provider is refreshed.
+     * <p>
+     * This is useful for large in-memory data sets, at the cost of the memory
+     * used by the index. It affects only list data providers set after calling
+     * this method with {@link #setItems(Collection)} or
+     * {@link #setDataProvider(ListDataProvider)}, and doesn't affect custom
+     * item filters.
+     * <p>
+     * Indexed filtering is disabled by default.
+     *
+     * @param indexedFiltering
+     *            {@code true} to enable indexed filtering, {@code false} to
+     *            disable it
+     */
+    public void setIndexedFiltering(boolean indexedFiltering) {
+        this.indexedFiltering = indexedFiltering;
+    }
+
+    /**
+     * Gets whether the default filtering of list data providers uses an index
+     * of the item labels.
+     *
+     * @see #setIndexedFiltering(boolean)
+     *
+     * @return {@code true} if indexed filtering is enabled, {@code false}
+     *         otherwise
+     */
+    public boolean isIndexedFiltering() {
+        return indexedFiltering;
+    }
+
+    /**
+     * Sets the strategy for evaluating whether the data set is small enough
+     * to be filtered in the client-side. The evaluation is done each time the
+     * data provider is set or updated, unless a size hint has been set with
+     * {@link #setSizeHint(Integer)}, or the filtering is done in the server
+     * anyway because of a custom item filter or data provider.
+     * <p>
+     * The default strategy is {@link SizeStrategy#PROBE}.
+     *
+     * @param sizeStrategy
+     *            the strategy to use, not <code>null</code>
+     */
+    public void setSizeStrategy(SizeStrategy sizeStrategy) {
+        Objects.requireNonNull(sizeStrategy,
+                "The size strategy can not be null");
+        this.sizeStrategy = sizeStrategy;
+    }
+
+    /**
+     * Gets the strategy for evaluating whether the data set is small enough to
+     * be filtered in the client-side.
+     *
+     * @see #setSizeStrategy(SizeStrategy)
+     *
+     * @return the size strategy, not <code>null</code>
+     */
+    public SizeStrategy getSizeStrategy() {
+        return sizeStrategy;
+    }
+
+    /**
+     * Sets a hint for the number of items in the data provider. When set, the
+     * hint is used instead of querying the data provider for deciding whether
+     * the data set is small enough to be filtered in the client-side. The hint
+     * doesn't affect the actual number of items shown.
+     *
+     * @param sizeHint
+     *            the expected number of items, or <code>null</code> to
+     *            evaluate the size with the {@link #getSizeStrategy() size
+     *            strategy}
+     */
+    public void setSizeHint(Integer sizeHint) {
+        if (sizeHint != null && sizeHint < 0) {
+            throw new IllegalArgumentException(
+                    "Size hint should not be negative.");
+        }
+        this.sizeHint = sizeHint;
+    }
+
+    /**
+     * Gets the hint for the number of items in the data provider.
+     *
+     * @see #setSizeHint(Integer)
+     *
+     * @return the size hint, or <code>null</code> if not set
+     */
+    public Integer getSizeHint() {
+        return sizeHint;
+    }
+
     /**
      * Sets a CallbackDataProvider using the given fetch items callback and a
      * size callback.
@@ -564,37 +1183,374 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
     }
 
     /**
-     * Sets a list data provider with an item filter as the data provider of
-     * this combo box. The item filter is used to compare each item to the
-     * filter text entered by the user.
+     * Sets a data provider using the given cancellable fetch items callback
+     * and a size callback.
      * <p>
-     * Note that defining a custom filter will force the component to make
-     * server roundtrips to handle the filtering. Otherwise it can handle
-     * filtering in the client-side, if the size of the data set is less than
-     * the {@link #setPageSize(int) pageSize}.
+     * When the items are fetched in the background with
+     * {@link #setFetchExecutor(Executor)}, a fetch is cancelled when the client
+     * requests items again before it completes, for example because the user
+     * has typed more characters. The callback can then abort the running
+     * query to free the backend resources, such as database connections, for
+     * the queries which are still relevant.
      *
-     * @param itemFilter
-     *            filter to check if an item is shown when user typed some text
-     *            into the ComboBox
-     * @param listDataProvider
-     *            the list data provider to use, not <code>null</code>
+     * @param fetchItems
+     *            a callback for fetching items, not <code>null</code>
+     * @param sizeCallback
+     *            a callback for getting the count of items, not
+     *            <code>null</code>
+     *
+     * @see CancellationToken
      */
-    public void setDataProvider(ItemFilter<T> itemFilter,
-            ListDataProvider<T> listDataProvider) {
-        Objects.requireNonNull(listDataProvider,
-                "List data provider cannot be null");
-
-        setDataProvider(listDataProvider,
-                filterText -> item -> itemFilter.test(item, filterText));
+    public void setDataProvider(CancellableFetchItemsCallback<T> fetchItems,
+            SerializableFunction<String, Integer> sizeCallback) {
+        Objects.requireNonNull(fetchItems,
+                "The fetch callback can not be null");
+        Objects.requireNonNull(sizeCallback,
+                "The size callback can not be null");
+        userProvidedFilter = UserProvidedFilter.YES;
+        setDataProvider(new CancellableCallbackDataProvider<>(fetchItems,
+                sizeCallback));
     }
 
     /**
-     * Gets the data provider used by this ComboBox.
-     * 
+     * Sets a data provider using the given callbacks, which return the items
+     * and their count as completion stages, for example from a reactive
+     * service layer.
+     * <p>
+     * No thread is blocked while waiting for the items requested by the
+     * client. When the stages complete, the items are sent to the client with
+     * {@link UI#access(com.vaadin.flow.server.Command)}, so server push should
+     * be enabled for them to be shown without waiting for the next request.
+     * If the client requests items again before the stages complete, they are
+     * cancelled.
+     * <p>
+     * The count of the items is still waited for in the request thread when
+     * it has not been loaded for the current filter and the items are reset:
+     * when the ComboBox is attached, when the data provider is refreshed with
+     * {@link DataProvider#refreshAll()}, and, before any items have been
+     * requested, when the page size or the item label generator is changed.
+     * The size callback should therefore complete quickly, for example from a
+     * cached count, and it should not complete its stage with
+     * {@code UI.access()}, since the session is locked while waiting.
+     * The wait fails with an exception if the stage is not completed in ten
+     * seconds.
+     *
+     * @param fetchItems
+     *            a callback for fetching items, not <code>null</code>
+     * @param sizeCallback
+     *            a callback for getting the count of items, not
+     *            <code>null</code>
+     */
+    public void setAsyncDataProvider(AsyncFetchItemsCallback<T> fetchItems,
+            SerializableFunction<String, CompletionStage<Integer>> sizeCallback) {
+        Objects.requireNonNull(fetchItems,
+                "The fetch callback can not be null");
+        Objects.requireNonNull(sizeCallback,
+                "The size callback can not be null");
+        userProvidedFilter = UserProvidedFilter.YES;
+        setDataProvider(
+                new CompletionStageDataProvider<>(fetchItems, sizeCallback));
+    }
+
+    /**
+     * Sets a data provider which fetches the items and their count with a
+     * single call of the given callback, instead of separate queries for the
+     * items and for the count.
+     * <p>
+     * When the ComboBox needs the count of the items, the callback is called
+     * for the items that the client is about to show, and the fetched items are
+     * used without calling the callback again. If the callback only tells that
+     * there are more items after the fetched ones, the ComboBox fetches them
+     * when the user scrolls beyond the known items.
+     *
+     * @param fetchItems
+     *            a callback for fetching items and their count, not
+     *            <code>null</code>
+     *
+     * @see FetchResult
+     */
+    public void setDataProvider(FetchItemsWithSizeCallback<T> fetchItems) {
+        Objects.requireNonNull(fetchItems,
+                "The fetch callback can not be null");
+        userProvidedFilter = UserProvidedFilter.YES;
+        setDataProvider(
+                new FetchWithSizeDataProvider<>(fetchItems, getPageSize()));
+    }
+
+    /**
+     * Sets a data provider which fetches items with the given callback without
+     * counting them. The ComboBox assumes that there are more items as long as
+     * the callback returns as many items as requested, and grows its size as
+     * the user scrolls. A page with fewer items than requested marks the end
+     * of the items.
+     * <p>
+     * This is useful for backends where counting the matching items is
+     * expensive or not possible.
+     *
+     * @param fetchItems
+     *            a callback for fetching items, not <code>null</code>
+     *
+     * @see #setDataProvider(FetchItemsWithSizeCallback)
+     */
+    public void setDataProviderWithUnknownSize(
+            FetchItemsCallback<T> fetchItems) {
+        Objects.requireNonNull(fetchItems,
+                "The fetch callback can not be null");
+        setDataProvider((FetchItemsWithSizeCallback<T>) (filter, offset,
+                limit) -> {
+            List<T> items = fetchItems.fetchItems(filter, offset, limit)
+                    .collect(Collectors.toList());
+            return FetchResult.withMoreItems(items,
+                    items.size() < limit ? 0 : 1);
+        });
+    }
+
+    /**
+     * Sets a list data provider with an item filter as the data provider of
+     * this combo box. The item filter is used to compare each item to the
+     * filter text entered by the user.
+     * <p>
+     * Note that defining a custom filter will force the component to make
+     * server roundtrips to handle the filtering. Otherwise it can handle
+     * filtering in the client-side, if the size of the data set is not larger
+     * than the {@link #setClientSideFilterThreshold(int) client-side filter
+     * threshold}.
+     *
+     * @param itemFilter
+     *            filter to check if an item is shown when user typed some text
+     *            into the ComboBox
+     * @param listDataProvider
+     *            the list data provider to use, not <code>null</code>
+     */
+    public void setDataProvider(ItemFilter<T> itemFilter,
+            ListDataProvider<T> listDataProvider) {
+        Objects.requireNonNull(listDataProvider,
+                "List data provider cannot be null");
+
+        setDataProvider(listDataProvider,
+                filterText -> item -> itemFilter.test(item, filterText));
+    }
+
+    /**
+     * Gets the data provider used by this ComboBox.
+     * 
      * @return the data provider used by this ComboBox
      */
     public DataProvider<T, ?> getDataProvider() {
-        return dataCommunicator.getDataProvider();
+        return dataProvider;
+    }
+
+    /**
+     * Sets a cache for the items fetched from the data provider. With a cache,
+     * typing a filter which has been used recently shows the previously
+     * fetched items without querying the data provider again. The cached items
+     * of a data provider are removed when it is refreshed with
+     * {@link DataProvider#refreshAll()}, and the cached ranges containing an
+     * item are removed when the item is refreshed with
+     * {@link DataProvider#refreshItem(Object)}.
+     * <p>
+     * The same cache can be shared by several ComboBoxes, for example by
+     * storing it in the session. The cache is used for data providers set
+     * after calling this method.
+     *
+     * @param pageCache
+     *            the cache to use, or <code>null</code> to not cache the items
+     */
+    public void setPageCache(PageCache pageCache) {
+        this.pageCache = pageCache;
+    }
+
+    /**
+     * Gets the cache for the items fetched from the data provider.
+     *
+     * @see #setPageCache(PageCache)
+     *
+     * @return the cache, or <code>null</code> if the items are not cached
+     */
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+
+    /**
+     * Sets a filter for refining the previous results in memory. When the user
+     * extends the filter string, for example from "ab" to "abc", and all the
+     * items matching the previous filter string have been fetched, the items
+     * matching the new filter string are filtered from them with the given
+     * item filter instead of querying the data provider.
+     * <p>
+     * The item filter must match the items the same way as the data provider
+     * does, and the items matching a filter string must be a subset of the
+     * items matching any of its prefixes. The fetched items are forgotten when
+     * the data provider is refreshed. The item filter is used for data
+     * providers set after calling this method.
+     *
+     * @param incrementalItemFilter
+     *            the filter matching the items like the data provider, or
+     *            <code>null</code> to always query the data provider
+     */
+    public void setIncrementalItemFilter(ItemFilter<T> incrementalItemFilter) {
+        this.incrementalItemFilter = incrementalItemFilter;
+    }
+
+    /**
+     * Gets the filter for refining the previous results in memory.
+     *
+     * @see #setIncrementalItemFilter(ItemFilter)
+     *
+     * @return the item filter, or <code>null</code> if not used
+     */
+    public ItemFilter<T> getIncrementalItemFilter() {
+        return incrementalItemFilter;
+    }
+
+    /**
+     * Sets an executor for fetching the items from the data provider in the
+     * background. When an executor is set, the items requested by the client
+     * are fetched with it without holding the session lock, and a loading
+     * indicator is shown meanwhile. The fetched items are sent to the client
+     * with {@link UI#access(com.vaadin.flow.server.Command)}, so server push
+     * should be enabled for them to be shown without waiting for the next
+     * request. If the client requests items again before the previous request
+     * completes, for example because the user keeps typing, the result of the
+     * previous request is discarded.
+     * <p>
+     * The data provider must support being queried from the threads of the
+     * executor. Since fetching usually blocks on I/O, the executor should not
+     * limit the number of threads too much; an executor using virtual threads
+     * is a good fit where available. The executor is not serialized with the
+     * ComboBox, and after deserialization the items are fetched synchronously
+     * until an executor is set again. The executor is used for data providers
+     * set after calling this method.
+     *
+     * @param fetchExecutor
+     *            the executor to fetch the items with, or <code>null</code> to
+     *            fetch them synchronously
+     */
+    public void setFetchExecutor(Executor fetchExecutor) {
+        this.fetchExecutor = fetchExecutor;
+    }
+
+    /**
+     * Gets the executor for fetching the items in the background.
+     *
+     * @see #setFetchExecutor(Executor)
+     *
+     * @return the executor, or <code>null</code> if the items are fetched
+     *         synchronously
+     */
+    public Executor getFetchExecutor() {
+        return fetchExecutor;
+    }
+
+    /**
+     * Sets the number of items to show first when items are fetched in the
+     * background. The first items of a requested range are then fetched and
+     * sent to the client on their own, so that the user sees the best
+     * matches of a slow backend without waiting for the whole page. The rest
+     * of the range is fetched right after, and appended to the open dropdown
+     * without resetting its scroll position.
+     * <p>
+     * The items are sent progressively only when they are fetched in the
+     * background, with {@link #setFetchExecutor(Executor)} or
+     * {@link #setAsyncDataProvider(AsyncFetchItemsCallback, SerializableFunction)},
+     * and not when all the items are loaded for filtering in the client.
+     *
+     * @param firstChunkSize
+     *            the number of items to send first, or {@code 0} to send each
+     *            requested range at once
+     */
+    public void setFirstChunkSize(int firstChunkSize) {
+        if (firstChunkSize < 0) {
+            throw new IllegalArgumentException(
+                    "First chunk size should not be negative.");
+        }
+        this.firstChunkSize = firstChunkSize;
+    }
+
+    /**
+     * Gets the number of items to show first when items are fetched in the
+     * background.
+     *
+     * @see #setFirstChunkSize(int)
+     *
+     * @return the number of items to send first, or {@code 0} if each range
+     *         is sent at once
+     */
+    public int getFirstChunkSize() {
+        return firstChunkSize;
+    }
+
+    /**
+     * Sets whether the first page of items is sent to the client along with
+     * the response attaching the ComboBox. The items are then shown right
+     * away when the user opens the dropdown, without a round trip to the
+     * server. When the items are filtered in the client-side, all of them are
+     * sent.
+     * <p>
+     * The items are fetched from the data provider on each attach, even if
+     * the dropdown is never opened, so this is best suited for ComboBoxes
+     * which are likely to be used. By default the items are fetched only when
+     * the dropdown is opened.
+     * <p>
+     * When the items are fetched in the background, with a
+     * {@link #setFetchExecutor(Executor) fetch executor} or an
+     * {@link #setAsyncDataProvider(AsyncFetchItemsCallback, SerializableFunction)
+     * asynchronous data provider}, the attach response is not delayed by the
+     * fetch. The first page is then sent in a later response once it has been
+     * fetched, unless it is already cached, and the loading indicator is not
+     * shown for it.
+     *
+     * @param preloadFirstPage
+     *            {@code true} to send the first page when attached,
+     *            {@code false} to send it when the dropdown is opened
+     */
+    public void setPreloadFirstPage(boolean preloadFirstPage) {
+        this.preloadFirstPage = preloadFirstPage;
+    }
+
+    /**
+     * Gets whether the first page of items is sent to the client along with
+     * the response attaching the ComboBox.
+     *
+     * @see #setPreloadFirstPage(boolean)
+     *
+     * @return {@code true} if the first page is sent when attached,
+     *         {@code false} if it is sent when the dropdown is opened
+     */
+    public boolean isPreloadFirstPage() {
+        return preloadFirstPage;
+    }
+
+    /**
+     * Sets a cache for the data generated for the items. ComboBoxes using the
+     * same cache and the same data provider instance reuse the data generated
+     * for an item by any of them, so a cache shared by the whole application
+     * avoids generating the same data in every UI showing the data provider.
+     * <p>
+     * All the ComboBoxes sharing the cache and a data provider must use
+     * equivalent item label generators and renderers. The cache is not used
+     * with component renderers. The cache is used for data providers set after
+     * calling this method.
+     *
+     * @see ItemJsonCache
+     *
+     * @param itemJsonCache
+     *            the cache to use, or <code>null</code> to generate the data
+     *            separately for this ComboBox
+     */
+    public void setItemJsonCache(ItemJsonCache itemJsonCache) {
+        this.itemJsonCache = itemJsonCache;
+    }
+
+    /**
+     * Gets the cache for the data generated for the items.
+     *
+     * @see #setItemJsonCache(ItemJsonCache)
+     *
+     * @return the cache, or <code>null</code> if the data is not cached
+     */
+    public ItemJsonCache getItemJsonCache() {
+        return itemJsonCache;
     }
 
     /**
@@ -613,6 +1569,12 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
         Objects.requireNonNull(itemLabelGenerator,
                 "The item label generator can not be null");
         this.itemLabelGenerator = itemLabelGenerator;
+        if (labelIndex != null) {
+            labelIndex.refreshAll();
+        }
+        if (usedItemJsonCache != null) {
+            usedItemJsonCache.invalidate(dataProvider);
+        }
         reset();
     }
 
@@ -630,9 +1592,10 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
      * Sets the page size, which is the number of items fetched at a time from
      * the data provider.
      * <p>
-     * The page size is also the largest number of items that can support
-     * client-side filtering. If you provide more items than the page size, the
-     * component has to fall back to server-side filtering.
+     * By default, the page size is also the largest number of items that can
+     * support client-side filtering. If you provide more items than the page
+     * size, the component has to fall back to server-side filtering. This
+     * limit can be changed with {@link #setClientSideFilterThreshold(int)}.
      * <p>
      * Setting the page size after the ComboBox has been rendered effectively
      * resets the component, and the current page(s) and sent over again.
@@ -656,9 +1619,9 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
      * Gets the page size, which is the number of items fetched at a time from
      * the data provider.
      * <p>
-     * The page size is also the largest number of items that can support
-     * client-side filtering. If you provide more items than the page size, the
-     * component has to fall back to server-side filtering.
+     * By default, the page size is also the largest number of items that can
+     * support client-side filtering. If you provide more items than the page
+     * size, the component has to fall back to server-side filtering.
      * <p>
      * The default page size is 50.
      * 
@@ -670,6 +1633,249 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
         return getElement().getProperty("pageSize", 50);
     }
 
+    /**
+     * Sets the largest number of items that can be filtered in the
+     * client-side. When the data provider has at most this many items and no
+     * custom item filter is used, all the items are sent to the client when
+     * the overlay is opened for the first time, and the filtering happens in
+     * the browser without server roundtrips.
+     * <p>
+     * A large threshold reduces the server roundtrips while typing, at the
+     * cost of sending the whole data set to the client at once. By default,
+     * the threshold is the same as the {@link #setPageSize(int) page size}.
+     * <p>
+     * With the default {@link SizeStrategy#PROBE} size strategy, up to one
+     * item more than the threshold is fetched each time the data provider is
+     * updated. With a very large threshold, consider
+     * {@link SizeStrategy#CACHED_COUNT} or {@link #setSizeHint(Integer)}
+     * instead.
+     *
+     * @param clientSideFilterThreshold
+     *            the maximum number of items to filter in the client-side, not
+     *            negative
+     */
+    public void setClientSideFilterThreshold(int clientSideFilterThreshold) {
+        if (clientSideFilterThreshold < 0) {
+            throw new IllegalArgumentException(
+                    "Client-side filter threshold should not be negative.");
+        }
+        this.clientSideFilterThreshold = clientSideFilterThreshold;
+        getElement().setProperty("_clientSideFilterThreshold",
+                clientSideFilterThreshold);
+        if (dataCommunicator != null) {
+            dataProviderUpdated();
+        }
+    }
+
+    /**
+     * Gets the largest number of items that can be filtered in the
+     * client-side.
+     *
+     * @see #setClientSideFilterThreshold(int)
+     *
+     * @return the maximum number of items to filter in the client-side
+     */
+    public int getClientSideFilterThreshold() {
+        return clientSideFilterThreshold == null ? getPageSize()
+                : clientSideFilterThreshold;
+    }
+
+    /**
+     * Sets the time to wait after the user has stopped typing before the
+     * filter is sent to the server. A shorter timeout makes the filtering more
+     * responsive, while a longer one reduces the number of queries to the data
+     * provider when the user types quickly. This has no effect when the
+     * filtering is done in the client-side.
+     * <p>
+     * The default timeout is 500 milliseconds.
+     *
+     * @see #setAdaptiveFilterDebounce(boolean)
+     *
+     * @param filterDebounceTimeout
+     *            the timeout in milliseconds, not negative
+     */
+    public void setFilterDebounceTimeout(int filterDebounceTimeout) {
+        if (filterDebounceTimeout < 0) {
+            throw new IllegalArgumentException(
+                    "Filter debounce timeout should not be negative.");
+        }
+        getElement().setProperty("_filterDebounceTimeout",
+                filterDebounceTimeout);
+    }
+
+    /**
+     * Gets the time to wait after the user has stopped typing before the
+     * filter is sent to the server.
+     *
+     * @see #setFilterDebounceTimeout(int)
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getFilterDebounceTimeout() {
+        return getElement().getProperty("_filterDebounceTimeout", 500);
+    }
+
+    /**
+     * Sets whether the time to wait before sending the filter to the server
+     * should adapt to the response time of the server. When enabled, the
+     * timeout follows the measured round trip time of the earlier data
+     * requests, bounded between 50 milliseconds and 5 seconds. The
+     * {@link #setFilterDebounceTimeout(int) filter debounce timeout} is used
+     * until the first round trip has been measured.
+     * <p>
+     * Adaptive debouncing is disabled by default.
+     *
+     * @param adaptiveFilterDebounce
+     *            {@code true} to adapt the timeout to the server response
+     *            time, {@code false} to always use the configured timeout
+     */
+    public void setAdaptiveFilterDebounce(boolean adaptiveFilterDebounce) {
+        getElement().setProperty("_adaptiveFilterDebounce",
+                adaptiveFilterDebounce);
+    }
+
+    /**
+     * Gets whether the time to wait before sending the filter to the server
+     * adapts to the response time of the server.
+     *
+     * @see #setAdaptiveFilterDebounce(boolean)
+     *
+     * @return {@code true} if adaptive debouncing is enabled, {@code false}
+     *         otherwise
+     */
+    public boolean isAdaptiveFilterDebounce() {
+        return getElement().getProperty("_adaptiveFilterDebounce", false);
+    }
+
+    /**
+     * Sets the largest number of items kept active for the client. The server
+     * keeps a key and the generated data only for the active items, so by
+     * default, when all the items from the beginning to the page the user
+     * has scrolled to are active, the memory used for a ComboBox grows with
+     * the scrolling distance.
+     * <p>
+     * With a limit, only the items of a window ending at the page the user
+     * has scrolled to are kept active, and the items outside of the window
+     * are removed both from the server and from the dropdown, and fetched
+     * again when the user scrolls back to them. The selected item stays
+     * selectable regardless of the window. The window spans at least two
+     * pages.
+     *
+     * @param maxActiveItems
+     *            the largest number of active items, or {@code 0} to keep all
+     *            the items up to the page the user has scrolled to active
+     */
+    public void setMaxActiveItems(int maxActiveItems) {
+        if (maxActiveItems < 0) {
+            throw new IllegalArgumentException(
+                    "Max active items should not be negative.");
+        }
+        getElement().setProperty("_maxActiveItems", maxActiveItems);
+    }
+
+    /**
+     * Gets the largest number of items kept active for the client.
+     *
+     * @see #setMaxActiveItems(int)
+     *
+     * @return the largest number of active items, or {@code 0} if not
+     *         limited
+     */
+    public int getMaxActiveItems() {
+        return getElement().getProperty("_maxActiveItems", 0);
+    }
+
+    /**
+     * Sets the function providing the ids which the keys of the items are
+     * derived from. By default the keys are generated for the items as they
+     * are sent to the client, so the same item gets a different key after
+     * each reset and in each UI. With an id provider, the key of an item is
+     * the string presentation of its id, which keeps the selected item and
+     * the items shown by the client valid across resets and filter changes.
+     * <p>
+     * The items are still sent again after a reset, but the client keeps
+     * using the objects it already had for the items which were sent again
+     * unchanged.
+     * <p>
+     * The ids must be unique among the items of the combo box, for example
+     * the ids given by {@link DataProvider#getId(Object)}:
+     *
+     * <pre>
+     * comboBox.setItemIdProvider(dataProvider::getId);
+     * </pre>
+     *
+     * @param itemIdProvider
+     *            the function providing the ids of the items, or
+     *            <code>null</code> to use the generated keys
+     */
+    public void setItemIdProvider(ValueProvider<T, ?> itemIdProvider) {
+        if (Objects.equals(this.itemIdProvider, itemIdProvider)) {
+            return;
+        }
+        this.itemIdProvider = itemIdProvider;
+        if (itemKeyMapper == null) {
+            return;
+        }
+        itemKeyMapper.setIdProvider(itemIdProvider);
+        reset();
+
+        T value = getValue();
+        if (value != null) {
+            getElement().setProperty("value", getKeyMapper().key(value));
+            scheduleSelectedItemUpdate();
+        }
+    }
+
+    /**
+     * Gets the function providing the ids which the keys of the items are
+     * derived from.
+     *
+     * @see #setItemIdProvider(ValueProvider)
+     *
+     * @return the function providing the ids of the items, or
+     *         <code>null</code> if the keys are generated
+     */
+    public ValueProvider<T, ?> getItemIdProvider() {
+        return itemIdProvider;
+    }
+
+    /**
+     * Sets the number of pages to prefetch ahead of the page the user has
+     * scrolled to. Once the user scrolls to a page, the following pages are
+     * requested in the background, so that fast scrolling shows the items
+     * instead of placeholders.
+     * <p>
+     * The server only fetches the prefetched pages up to the given number of
+     * pages after the range the client has actually requested, and not while
+     * another fetch is still in progress, so prefetching can't flood the data
+     * provider. This has no effect when the filtering is done in the
+     * client-side. By default no pages are prefetched.
+     *
+     * @param prefetchPages
+     *            the number of pages to prefetch, or {@code 0} to not
+     *            prefetch
+     */
+    public void setPrefetchPages(int prefetchPages) {
+        if (prefetchPages < 0) {
+            throw new IllegalArgumentException(
+                    "Prefetch pages should not be negative.");
+        }
+        getElement().setProperty("_prefetchPages", prefetchPages);
+    }
+
+    /**
+     * Gets the number of pages to prefetch ahead of the page the user has
+     * scrolled to.
+     *
+     * @see #setPrefetchPages(int)
+     *
+     * @return the number of pages to prefetch, or {@code 0} if pages are not
+     *         prefetched
+     */
+    public int getPrefetchPages() {
+        return getElement().getProperty("_prefetchPages", 0);
+    }
+
     @Override
     public void setOpened(boolean opened) {
         super.setOpened(opened);
@@ -901,11 +2107,14 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
                 dataGeneratorRegistration = null;
             }
             Rendering<T> rendering = renderer.render(getElement(),
-                    dataCommunicator.getKeyMapper(), template);
+                    getKeyMapper(), template);
             if (rendering.getDataGenerator().isPresent()) {
                 dataGeneratorRegistration = dataGenerator
                         .addDataGenerator(rendering.getDataGenerator().get());
             }
+            if (usedItemJsonCache != null) {
+                usedItemJsonCache.invalidate(dataProvider);
+            }
             reset();
         });
     }
@@ -913,14 +2122,198 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
     @ClientCallable
     private void confirmUpdate(int id) {
         dataCommunicator.confirmUpdate(id);
+
+        T value = getValue();
+        if (value != null && getActiveWindowSize() > 0
+                && !itemKeyMapper.isIdBased() && !getKeyMapper().has(value)) {
+            // The key of the selected item was removed along with the keys of
+            // the items outside the active window, so it gets a new one
+            getElement().setProperty("value", getKeyMapper().key(value));
+            scheduleSelectedItemUpdate();
+        }
     }
 
     @ClientCallable
     private void setRequestedRange(int start, int length, String filter) {
+        int end = start + length;
+        demandedRangeEnd = end;
+        if (Objects.equals(filter, lastFilter)
+                && getActiveWindowSize() == 0) {
+            // Keep the prefetched items active
+            end = Math.max(end, requestedRangeEnd);
+        }
+        requestRange(start, end - start, filter, false);
+    }
+
+    @ClientCallable
+    private void prefetchRange(int start, int length, String filter) {
+        if (!Objects.equals(filter, lastFilter) || pendingFetch != null) {
+            // Stale, or the data provider is still busy with a request
+            return;
+        }
+        int end = Math.min(start + length,
+                demandedRangeEnd + getPrefetchPages() * getPageSize());
+        int activeWindowSize = getActiveWindowSize();
+        if (activeWindowSize > 0) {
+            // Keep the last requested page in the window
+            end = Math.min(end,
+                    demandedRangeEnd - getPageSize() + activeWindowSize);
+        }
+        if (end > requestedRangeEnd) {
+            requestRange(start, end - start, filter, true);
+        }
+    }
+
+    /**
+     * Requests the given range from the data communicator, fetching the items
+     * in the background first if needed. The loading indicator is not shown
+     * for a prefetch, which the user is not waiting for.
+     */
+    private void requestRange(int start, int length, String filter,
+            boolean prefetch) {
+        int end = start + length;
+        int activeWindowSize = getActiveWindowSize();
+        if (activeWindowSize > 0) {
+            // Same window as computed by the connector, starting at a page
+            int pageSize = getPageSize();
+            int windowStart = (end - activeWindowSize + pageSize - 1)
+                    / pageSize * pageSize;
+            start = Math.max(start, windowStart);
+            length = end - start;
+        }
+        setFetchLimitHint(end);
+        if (asyncDataProvider != null && (fetchExecutor != null
+                || asyncDataProvider.isNonBlocking())) {
+            fetchAsync(start, length, filter, prefetch);
+        } else {
+            applyRequestedRange(start, length, filter);
+        }
+    }
+
+    private void applyRequestedRange(int start, int length, String filter) {
+        requestedRangeEnd = start + length;
         dataCommunicator.setRequestedRange(start, length);
         filterSlot.accept(filter);
     }
 
+    /**
+     * Fetches the items missing from the requested range with the fetch
+     * executor or a non-blocking data provider, and passes the range to the
+     * data communicator once they have been fetched.
+     */
+    private void fetchAsync(int start, int length, String filter,
+            boolean prefetch) {
+        cancelPendingFetch();
+        int end = start + length;
+        boolean sameFilter = Objects.equals(filter, lastFilter);
+        if (sameFilter && end <= requestedRangeEnd) {
+            // Already fetched for the current range
+            applyRequestedRange(start, length, filter);
+            return;
+        }
+
+        int offset = sameFilter ? Math.max(start, requestedRangeEnd) : start;
+        if (isAnsweredInMemory(filter, offset, end)) {
+            // No need to query the data provider in the background
+            applyRequestedRange(start, length, filter);
+            return;
+        }
+        int loadEnd = end;
+        if (firstChunkSize > 0
+                && !getElement().getProperty("_clientSideFilter", false)) {
+            loadEnd = Math.min(end, offset + firstChunkSize);
+        }
+        fetchAsync(start, offset, loadEnd, end, filter, prefetch);
+    }
+
+    /**
+     * Checks whether the data providers wrapped around the loading data
+     * provider can answer the queries for the given range without querying
+     * the actual data provider.
+     */
+    private boolean isAnsweredInMemory(String filter, int offset, int end) {
+        if (labelIndex != null) {
+            return true;
+        }
+        if (refiningDataProvider != null
+                && refiningDataProvider.isRefinable(filter)) {
+            return true;
+        }
+        return pageCachingDataProvider != null
+                && pageCachingDataProvider.isCached(filter, offset,
+                        end - offset);
+    }
+
+    /**
+     * Fetches the items from the offset to the load end, and passes the range
+     * up to the load end to the data communicator once they have been
+     * fetched. The rest of the requested range is fetched after that.
+     */
+    private void fetchAsync(int start, int offset, int loadEnd, int end,
+            String filter, boolean prefetch) {
+        UI ui = getUI().orElseThrow(() -> new IllegalStateException(
+                "Items can only be fetched for an attached ComboBox"));
+        AsyncDataProvider<T, ?> loadingDataProvider = asyncDataProvider;
+        CompletableFuture<AsyncDataProvider.LoadResult<T>> future = loadingDataProvider
+                .load(filter, offset, loadEnd, fetchExecutor);
+        pendingFetch = future;
+        if (!prefetch) {
+            getElement().setProperty("loading", true);
+        }
+        future.whenComplete((result, error) -> ui.access(() -> {
+            if (pendingFetch != future) {
+                // Superseded by a later request
+                return;
+            }
+            pendingFetch = null;
+            getElement().setProperty("loading", false);
+            if (error != null) {
+                throw new IllegalStateException("Fetching the items failed",
+                        error);
+            }
+            loadingDataProvider.apply(result);
+            applyRequestedRange(start, loadEnd - start, filter);
+            if (loadEnd < Math.min(end, result.getSize())) {
+                // The first items are sent, continue with the rest
+                fetchAsync(start, loadEnd, end, end, filter, prefetch);
+            }
+        }));
+    }
+
+    /**
+     * Sets the number of items which a data provider fetching the items with
+     * their count fetches along with the count, to cover the requested range.
+     * It is set here since the count may be queried in a background thread.
+     */
+    private void setFetchLimitHint(int end) {
+        if (dataProvider instanceof FetchWithSizeDataProvider) {
+            ((FetchWithSizeDataProvider<?>) dataProvider)
+                    .setLimitHint(Math.max(end, getPageSize()));
+        }
+    }
+
+    private void cancelPendingFetch() {
+        if (pendingFetch != null) {
+            pendingFetch.cancel(false);
+            pendingFetch = null;
+            getElement().setProperty("loading", false);
+        }
+    }
+
+    /**
+     * Requests the first page for the empty filter, or all the items when
+     * filtering in the client-side, like the connector does when the dropdown
+     * is opened. The connector keeps them until the dropdown asks for them.
+     */
+    private void preloadFirstPage() {
+        int length = getPageSize();
+        if (getElement().getProperty("_clientSideFilter", false)) {
+            length = Math.max(getClientSideFilterThreshold(), length);
+        }
+        demandedRangeEnd = length;
+        requestRange(0, length, "", true);
+    }
+
     @ClientCallable
     private void resetDataCommunicator() {
         dataCommunicator.reset();
@@ -931,6 +2324,119 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
                 .beforeClientResponse(this, context -> command.accept(ui)));
     }
 
+    /**
+     * Encodes the items for the connector. In the compact format the items are
+     * sent as an object with an array of values for each property name, in
+     * which missing properties are null. Items without a renderer only have a
+     * key and a label, so they are always sent in the compact format,
+     * regardless of {@link #isCompactItemEncoding()}.
+     */
+    private JsonValue encodeItems(JsonArray items) {
+        if (isLabelOnly()) {
+            return encodeLabelOnlyItems(items);
+        }
+        if (!compactItemEncoding) {
+            return items;
+        }
+        JsonObject columns = Json.createObject();
+        for (int i = 0; i < items.length(); i++) {
+            JsonObject item = items.getObject(i);
+            for (String name : item.keys()) {
+                if (!columns.hasKey(name)) {
+                    JsonArray column = Json.createArray();
+                    for (int j = 0; j < items.length(); j++) {
+                        column.set(j, Json.createNull());
+                    }
+                    columns.put(name, column);
+                }
+                columns.getArray(name).set(i, item.get(name));
+            }
+        }
+        JsonObject encoded = Json.createObject();
+        encoded.put("length", items.length());
+        encoded.put("columns", columns);
+        return encoded;
+    }
+
+    /**
+     * Encodes items which have only a key and a label in the compact format
+     * without checking the property names of each item.
+     */
+    private JsonValue encodeLabelOnlyItems(JsonArray items) {
+        JsonArray keys = Json.createArray();
+        JsonArray labels = Json.createArray();
+        for (int i = 0; i < items.length(); i++) {
+            JsonObject item = items.getObject(i);
+            keys.set(i, item.get("key"));
+            labels.set(i, item.get("label"));
+        }
+        JsonObject columns = Json.createObject();
+        columns.put("key", keys);
+        columns.put("label", labels);
+        JsonObject encoded = Json.createObject();
+        encoded.put("length", items.length());
+        encoded.put("columns", columns);
+        return encoded;
+    }
+
+    private boolean isLabelOnly() {
+        return renderer == null;
+    }
+
+    /**
+     * Schedules sending the value as the selected item before the response.
+     * This ensures that the selection works even with lazy loading when the
+     * item is not yet loaded. The item is generated only once for the value
+     * the combo box has at the end of the request, however many times the
+     * value is set.
+     */
+    private void scheduleSelectedItemUpdate() {
+        if (selectedItemUpdateScheduled) {
+            return;
+        }
+        selectedItemUpdateScheduled = true;
+        runBeforeClientResponse(ui -> {
+            selectedItemUpdateScheduled = false;
+            T value = getValue();
+            if (value == null || dataCommunicator == null) {
+                // Cleared after being scheduled
+                return;
+            }
+            sendSelectedItem(value);
+
+            // Workaround for property not updating in certain scenario
+            // https://github.com/vaadin/flow/issues/4862
+            ui.getPage().executeJavaScript("$0.value=$1", getElement(),
+                    getElement().getProperty("value"));
+        });
+    }
+
+    private void sendSelectedItem(T value) {
+        DataKeyMapper<T> keyMapper = getKeyMapper();
+        if (keyMapper.has(value)) {
+            value = keyMapper.get(keyMapper.key(value));
+        }
+        JsonObject json = Json.createObject();
+        json.put("key", keyMapper.key(value));
+        dataGenerator.generateData(value, json);
+        setSelectedItem(json);
+    }
+
+    /**
+     * Gets the largest number of items kept active for the client, matching
+     * the window computed by the connector, or {@code 0} if not limited. All
+     * the items are kept when filtering in the client-side, since the
+     * connector needs them all.
+     */
+    private int getActiveWindowSize() {
+        int maxActiveItems = getMaxActiveItems();
+        if (maxActiveItems == 0
+                || getElement().getProperty("_clientSideFilter", false)) {
+            return 0;
+        }
+        return Math.max(maxActiveItems, 2 * getPageSize());
+    }
+
     private void initConnector() {
         getUI().orElseThrow(() -> new IllegalStateException(
                 "Connector can only be initialized for an attached ComboBox"))
@@ -940,22 +2446,40 @@ public class ComboBox<T> extends GeneratedVaadinComboBox<ComboBox<T>, T>
     }
 
     private DataKeyMapper<T> getKeyMapper() {
-        return dataCommunicator.getKeyMapper();
+        return itemKeyMapper;
     }
 
     private void setClientSideFilter(boolean clientSideFilter) {
         getElement().setProperty("_clientSideFilter", clientSideFilter);
     }
 
+    /**
+     * Resets the items of the data communicator and the connector before the
+     * response. Repeated resets during the same request are done only once.
+     */
     private void reset() {
-        if (dataCommunicator != null) {
-            dataCommunicator.setRequestedRange(0, 0);
-            dataCommunicator.reset();
+        requestedRangeEnd = 0;
+        demandedRangeEnd = 0;
+        setFetchLimitHint(0);
+        if (resetScheduled) {
+            return;
         }
-        runBeforeClientResponse(ui -> ui.getPage().executeJavaScript(
-                // If-statement is needed because on the first attach this
-                // JavaScript is called before initializing the connector.
-                "if($0.$connector) $0.$connector.reset();", getElement()));
+        resetScheduled = true;
+        runBeforeClientResponse(ui -> {
+            resetScheduled = false;
+            if (dataCommunicator != null) {
+                dataCommunicator.setRequestedRange(0, 0);
+                dataCommunicator.reset();
+            }
+            ui.getPage().executeJavaScript(
+                    // If-statement is needed because on the first attach this
+                    // JavaScript is called before initializing the connector.
+                    "if($0.$connector) $0.$connector.reset();", getElement());
+            if (preloadPending) {
+                preloadPending = false;
+                preloadFirstPage();
+            }
+        });
     }
 
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import com.vaadin.flow.component.combobox.ComboBox.AsyncFetchItemsCallback;
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableFunction;
+
+/**
+ * A data provider whose callbacks return the items and their count as
+ * completion stages. {@link AsyncDataProvider} uses
+ * {@link #fetchAsync(Query)} and {@link #sizeAsync(Query)} without blocking
+ * any thread. The synchronous queries of the data communicator, such as the
+ * count queried when it is reset, are answered from the last count completed
+ * for the filter when there is one. Otherwise they wait for the stages to
+ * complete in the calling thread, which is usually the request thread holding
+ * the session lock, for at most {@link #BLOCKING_TIMEOUT_SECONDS} seconds. A
+ * stage which is completed from {@code UI.access} can't complete while the
+ * lock is held, so the wait fails instead of blocking the session forever.
+ *
+ * @param <T>
+ *            the type of the items
+ * @author Vaadin Ltd
+ */
+class CompletionStageDataProvider<T>
+        extends AbstractBackEndDataProvider<T, String> {
+
+    /**
+     * The longest time that a synchronous query waits for a stage.
+     */
+    static final long BLOCKING_TIMEOUT_SECONDS = 10;
+
+    private final AsyncFetchItemsCallback<T> fetchItems;
+    private final SerializableFunction<String, CompletionStage<Integer>> sizeCallback;
+
+    // The filter and the count of the last completed size stage, until the
+    // data is refreshed
+    private String knownSizeFilter;
+    private int knownSize;
+
+    /**
+     * Creates a new data provider.
+     *
+     * @param fetchItems
+     *            the callback for fetching the items, not <code>null</code>
+     * @param sizeCallback
+     *            the callback for getting the count of the items, not
+     *            <code>null</code>
+     */
+    CompletionStageDataProvider(AsyncFetchItemsCallback<T> fetchItems,
+            SerializableFunction<String, CompletionStage<Integer>> sizeCallback) {
+        this.fetchItems = fetchItems;
+        this.sizeCallback = sizeCallback;
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<T, String> query) {
+        synchronized (this) {
+            if (knownSizeFilter != null && knownSizeFilter
+                    .equals(query.getFilter().orElse(""))) {
+                return knownSize;
+            }
+        }
+        return await(sizeAsync(query));
+    }
+
+    @Override
+    protected Stream<T> fetchFromBackEnd(Query<T, String> query) {
+        return await(fetchAsync(query)).stream();
+    }
+
+    @Override
+    public void refreshAll() {
+        synchronized (this) {
+            knownSizeFilter = null;
+        }
+        super.refreshAll();
+    }
+
+    /**
+     * Gets the count of the items matching the filter of the query.
+     *
+     * @param query
+     *            the query defining the filter
+     * @return a future completed with the count of the items
+     */
+    CompletableFuture<Integer> sizeAsync(Query<T, String> query) {
+        String filter = query.getFilter().orElse("");
+        CompletableFuture<Integer> size = sizeCallback.apply(filter)
+                .toCompletableFuture();
+        size.thenAccept(count -> {
+            synchronized (this) {
+                knownSizeFilter = filter;
+                knownSize = count;
+            }
+        });
+        return size;
+    }
+
+    /**
+     * Fetches the items of the query.
+     *
+     * @param query
+     *            the query defining the items to fetch
+     * @return a future completed with the fetched items
+     */
+    CompletableFuture<List<T>> fetchAsync(Query<T, String> query) {
+        return fetchItems.fetchItems(query.getFilter().orElse(""),
+                query.getOffset(), query.getLimit()).toCompletableFuture();
+    }
+
+    /**
+     * Waits for the given stage in the calling thread, failing instead of
+     * blocking indefinitely if it is not completed in time.
+     */
+    private static <R> R await(CompletableFuture<R> stage) {
+        if (stage.isDone()) {
+            return stage.join();
+        }
+        try {
+            return stage.get(BLOCKING_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            stage.cancel(false);
+            throw new IllegalStateException("The data provider callback "
+                    + "was not completed in " + BLOCKING_TIMEOUT_SECONDS
+                    + " seconds. A stage completed with UI.access() can't "
+                    + "complete while the session is locked.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Interrupted while waiting for the data provider", e);
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+    }
+}
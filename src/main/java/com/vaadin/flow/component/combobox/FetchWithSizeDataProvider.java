@@ -0,0 +1,224 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import com.vaadin.flow.component.combobox.ComboBox.FetchItemsWithSizeCallback;
+import com.vaadin.flow.component.combobox.ComboBox.FetchResult;
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+
+/**
+ * A data provider which gets both the items and their count from a single
+ * {@link FetchItemsWithSizeCallback} call.
+ * <p>
+ * When the size is queried for a new filter, the items of the range that the
+ * client is about to request are fetched with the same call, and used for the
+ * following fetches of that range.
+ * <p>
+ * If the size is not exact, the size query returns {@link #UNKNOWN_SIZE}, so
+ * that the data communicator passes on any range the client requests. The
+ * size known from the fetched items, which grows as more items are fetched,
+ * is sent to the client instead with {@link #getKnownSize()}.
+ * <p>
+ * The items may be fetched in a background thread while the session lock is
+ * held by another thread, so the state is guarded by this data provider, and
+ * the callback is called without holding it.
+ *
+ * @param <T>
+ *            the type of the items
+ * @author Vaadin Ltd
+ */
+class FetchWithSizeDataProvider<T>
+        extends AbstractBackEndDataProvider<T, String> {
+
+    /**
+     * The size returned by {@link #size(Query)} as long as the exact count of
+     * the items is not known.
+     */
+    static final int UNKNOWN_SIZE = Integer.MAX_VALUE;
+
+    private final FetchItemsWithSizeCallback<T> callback;
+    // Set while holding the session lock, read when fetching
+    private volatile int limitHint;
+
+    // The filter which the known size is for, or null if nothing is known
+    private String knownFilter;
+    private int size;
+    private boolean exactSize;
+
+    // Items from the beginning of the data set fetched along with the size
+    private List<T> fetchedItems;
+
+    /**
+     * Creates a new data provider.
+     *
+     * @param callback
+     *            the callback for fetching the items and their count, not
+     *            <code>null</code>
+     * @param limitHint
+     *            the initial number of items from the beginning to fetch along
+     *            with the size
+     */
+    FetchWithSizeDataProvider(FetchItemsWithSizeCallback<T> callback,
+            int limitHint) {
+        this.callback = callback;
+        this.limitHint = limitHint;
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<T, String> query) {
+        String filter = query.getFilter().orElse("");
+        synchronized (this) {
+            if (filter.equals(knownFilter)) {
+                return exactSize ? size : UNKNOWN_SIZE;
+            }
+            knownFilter = filter;
+            size = 0;
+            exactSize = false;
+            fetchedItems = null;
+        }
+        List<T> items = new ArrayList<>(
+                fetch(filter, 0, limitHint).getItems());
+        synchronized (this) {
+            if (filter.equals(knownFilter)) {
+                fetchedItems = items;
+            }
+            return exactSize ? size : UNKNOWN_SIZE;
+        }
+    }
+
+    @Override
+    protected Stream<T> fetchFromBackEnd(Query<T, String> query) {
+        String filter = query.getFilter().orElse("");
+        int offset = query.getOffset();
+        int end = offset + query.getLimit();
+        synchronized (this) {
+            if (fetchedItems != null && filter.equals(knownFilter)
+                    && (end <= fetchedItems.size()
+                            || exactSize && size <= fetchedItems.size())) {
+                return new ArrayList<>(fetchedItems.subList(
+                        Math.min(offset, fetchedItems.size()),
+                        Math.min(end, fetchedItems.size()))).stream();
+            }
+        }
+        return fetch(filter, offset, query.getLimit()).getItems().stream();
+    }
+
+    @Override
+    public void refreshItem(T item) {
+        synchronized (this) {
+            if (fetchedItems != null) {
+                Object id = getId(item);
+                fetchedItems.replaceAll(fetched -> Objects
+                        .equals(id, getId(fetched)) ? item : fetched);
+            }
+        }
+        super.refreshItem(item);
+    }
+
+    @Override
+    public void refreshAll() {
+        synchronized (this) {
+            knownFilter = null;
+            fetchedItems = null;
+        }
+        super.refreshAll();
+    }
+
+    /**
+     * Sets the number of items from the beginning to fetch along with the
+     * size for a new filter. This is read when fetching in a background
+     * thread, so it should be set while holding the session lock instead of
+     * being computed from the state of the combo box.
+     *
+     * @param limitHint
+     *            the number of items to fetch along with the size
+     */
+    void setLimitHint(int limitHint) {
+        this.limitHint = limitHint;
+    }
+
+    /**
+     * Gets the number of items known for the filter of the last size query.
+     * Unless the size is exact, it is the number of items up to the last
+     * fetched ones and the number of items known to exist after them.
+     *
+     * @return the known number of items
+     */
+    synchronized int getKnownSize() {
+        return size;
+    }
+
+    /**
+     * Updates the known size with items fetched without calling this data
+     * provider, for example from a cache. A range with fewer items than its
+     * limit ends the items, and a full range tells that there may be more.
+     *
+     * @param filter
+     *            the filter of the items
+     * @param offset
+     *            the index of the first item
+     * @param limit
+     *            the number of requested items
+     * @param count
+     *            the number of items in the range
+     */
+    synchronized void onItemsFetched(String filter, int offset, int limit,
+            int count) {
+        if (count < limit) {
+            updateSize(filter, offset + count, true);
+        } else {
+            updateSize(filter, offset + count + (exactSize ? 0 : 1), false);
+        }
+    }
+
+    private FetchResult<T> fetch(String filter, int offset, int limit) {
+        FetchResult<T> result = Objects.requireNonNull(
+                callback.fetchItems(filter, offset, limit),
+                "The fetch callback can not return null");
+        synchronized (this) {
+            if (result.isExactSize()) {
+                updateSize(filter, result.getSize(), true);
+            } else {
+                updateSize(filter,
+                        offset + result.getItems().size() + result.getSize(),
+                        result.getSize() == 0);
+            }
+        }
+        return result;
+    }
+
+    private void updateSize(String filter, int newSize, boolean exact) {
+        if (!filter.equals(knownFilter)) {
+            // Fetched for a filter which is not the current one
+            return;
+        }
+        if (exact) {
+            size = newSize;
+            exactSize = true;
+        } else if (newSize > size) {
+            // The items are fetched in any order, so a lower estimate from
+            // an earlier range doesn't shrink the size
+            size = newSize;
+            exactSize = false;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.vaadin.flow.component.combobox.ItemLabelIndex.LabelFilter;
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.DataProviderListener;
+import com.vaadin.flow.data.provider.ListDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * A data provider which answers the queries filtered by the label filters of
+ * an {@link ItemLabelIndex} by looking up the matching items from the index,
+ * instead of testing every item of the list data provider. Other queries, and
+ * all queries while the list data provider has its own filter or sort order,
+ * are delegated to the list data provider.
+ *
+ * @param <T>
+ *            the type of the items
+ * @param <F>
+ *            the type of the filter
+ * @author Vaadin Ltd
+ */
+class IndexedDataProvider<T, F> implements DataProvider<T, F> {
+
+    private final DataProvider<T, F> delegate;
+    private final ItemLabelIndex<T> index;
+
+    /**
+     * Creates a new indexed data provider.
+     *
+     * @param delegate
+     *            the data provider answering the other queries from the
+     *            list data provider, not <code>null</code>
+     * @param index
+     *            the index of the item labels of the list data provider, not
+     *            <code>null</code>
+     */
+    IndexedDataProvider(DataProvider<T, F> delegate, ItemLabelIndex<T> index) {
+        this.delegate = delegate;
+        this.index = index;
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return delegate.isInMemory();
+    }
+
+    @Override
+    public int size(Query<T, F> query) {
+        String filterText = getIndexedFilterText(query);
+        return filterText != null ? index.countItems(filterText)
+                : delegate.size(query);
+    }
+
+    @Override
+    public Stream<T> fetch(Query<T, F> query) {
+        List<T> items = findItems(query);
+        if (items == null) {
+            return delegate.fetch(query);
+        }
+        int offset = Math.min(query.getOffset(), items.size());
+        int end = Math.min(offset + query.getLimit(), items.size());
+        return new ArrayList<>(items.subList(offset, end)).stream();
+    }
+
+    @Override
+    public void refreshItem(T item) {
+        delegate.refreshItem(item);
+    }
+
+    @Override
+    public void refreshAll() {
+        delegate.refreshAll();
+    }
+
+    @Override
+    public Registration addDataProviderListener(
+            DataProviderListener<T> listener) {
+        return delegate.addDataProviderListener(listener);
+    }
+
+    @Override
+    public Object getId(T item) {
+        return delegate.getId(item);
+    }
+
+    private List<T> findItems(Query<T, F> query) {
+        String filterText = getIndexedFilterText(query);
+        return filterText != null ? index.findItems(filterText) : null;
+    }
+
+    /**
+     * Gets the filter text of a query answered from the index, or
+     * <code>null</code> if the query is delegated.
+     */
+    private String getIndexedFilterText(Query<T, F> query) {
+        Object filter = query.getFilter().orElse(null);
+        ListDataProvider<T> listDataProvider = index.getDataProvider();
+        if (!(filter instanceof LabelFilter)
+                || !((LabelFilter<?>) filter).isFrom(index)
+                || query.getInMemorySorting() != null
+                || listDataProvider.getFilter() != null
+                || listDataProvider.getSortComparator() != null) {
+            return null;
+        }
+        return ((LabelFilter<?>) filter).getFilterText();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vaadin.flow.data.provider.DataKeyMapper;
+import com.vaadin.flow.function.ValueProvider;
+
+/**
+ * A key mapper which derives the keys of the items from their ids when an id
+ * provider is set, and otherwise uses the keys generated by the wrapped key
+ * mapper of the data communicator.
+ * <p>
+ * The id-based keys are the same for an item across resets and across UIs.
+ * Only the items which have been given a key and not removed since then can
+ * be found by their keys.
+ *
+ * @param <T>
+ *            the type of the items
+ * @author Vaadin Ltd
+ */
+class ItemIdKeyMapper<T> implements DataKeyMapper<T> {
+
+    private final DataKeyMapper<T> generatedKeys;
+    private final Map<String, T> items = new HashMap<>();
+
+    private ValueProvider<T, ?> idProvider;
+
+    /**
+     * Creates a new key mapper.
+     *
+     * @param generatedKeys
+     *            the key mapper used when there is no id provider, not
+     *            <code>null</code>
+     */
+    ItemIdKeyMapper(DataKeyMapper<T> generatedKeys) {
+        this.generatedKeys = generatedKeys;
+    }
+
+    /**
+     * Sets the function providing the ids which the keys are derived from.
+     * The items mapped by their previous ids are forgotten.
+     *
+     * @param idProvider
+     *            the id provider, or <code>null</code> to use the generated
+     *            keys
+     */
+    void setIdProvider(ValueProvider<T, ?> idProvider) {
+        this.idProvider = idProvider;
+        items.clear();
+    }
+
+    /**
+     * Gets whether the keys are derived from the ids of the items.
+     *
+     * @return <code>true</code> if an id provider is set, <code>false</code>
+     *         otherwise
+     */
+    boolean isIdBased() {
+        return idProvider != null;
+    }
+
+    @Override
+    public String key(T dataObject) {
+        if (idProvider == null) {
+            return generatedKeys.key(dataObject);
+        }
+        String key = idKey(dataObject);
+        items.put(key, dataObject);
+        return key;
+    }
+
+    @Override
+    public boolean has(T dataObject) {
+        if (idProvider == null) {
+            return generatedKeys.has(dataObject);
+        }
+        return items.containsKey(idKey(dataObject));
+    }
+
+    @Override
+    public T get(String key) {
+        if (idProvider == null) {
+            return generatedKeys.get(key);
+        }
+        return items.get(key);
+    }
+
+    @Override
+    public void remove(T dataObject) {
+        if (idProvider == null) {
+            generatedKeys.remove(dataObject);
+        } else {
+            items.remove(idKey(dataObject));
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        if (idProvider == null) {
+            generatedKeys.removeAll();
+        } else {
+            items.clear();
+        }
+    }
+
+    @Override
+    public void refresh(T dataObject) {
+        if (idProvider == null) {
+            generatedKeys.refresh(dataObject);
+        } else {
+            items.replace(idKey(dataObject), dataObject);
+        }
+    }
+
+    @Override
+    public void setIdentifierGetter(ValueProvider<T, Object> identifierGetter) {
+        generatedKeys.setIdentifierGetter(identifierGetter);
+    }
+
+    private String idKey(T dataObject) {
+        return String.valueOf(idProvider.apply(dataObject));
+    }
+}
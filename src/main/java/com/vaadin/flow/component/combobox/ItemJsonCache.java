@@ -0,0 +1,167 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.vaadin.flow.data.provider.DataGenerator;
+import com.vaadin.flow.data.provider.DataProvider;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+/**
+ * A bounded, thread-safe cache of the JSON data generated for the items of
+ * {@link ComboBox}, keyed by the data provider instance and the item id.
+ * ComboBoxes using the same cache and the same data provider reuse the data
+ * generated for an item by any of them, instead of generating it again for
+ * each instance. This is useful when the same data provider is shown in many
+ * UIs at the same time, in which case a single cache instance can be shared by
+ * the whole application.
+ * <p>
+ * All the ComboBoxes sharing a cache and a data provider must generate the
+ * same data for the items, meaning that they must use equivalent item label
+ * generators and renderers. Component renderers are not supported, and
+ * ComboBoxes using them don't use the cache.
+ * <p>
+ * The cached data of an item is removed when it is refreshed with
+ * {@link DataProvider#refreshItem(Object)}, and all the cached data of a data
+ * provider is removed when it is refreshed with
+ * {@link DataProvider#refreshAll()}.
+ *
+ * @see ComboBox#setItemJsonCache(ItemJsonCache)
+ * @author Vaadin Ltd
+ */
+public class ItemJsonCache implements Serializable {
+
+    private static final class Key implements Serializable {
+        private final DataProvider<?, ?> dataProvider;
+        private final Object itemId;
+
+        private Key(DataProvider<?, ?> dataProvider, Object itemId) {
+            this.dataProvider = dataProvider;
+            this.itemId = itemId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return dataProvider == other.dataProvider
+                    && Objects.equals(itemId, other.itemId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(dataProvider)
+                    + Objects.hashCode(itemId);
+        }
+    }
+
+    private static final class LruMap extends LinkedHashMap<Key, JsonObject> {
+        private final int maxEntries;
+
+        private LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<Key, JsonObject> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private final LruMap entries;
+
+    /**
+     * Creates a cache with the given maximum number of items.
+     *
+     * @param maxEntries
+     *            the maximum number of items to keep the data for, greater
+     *            than zero
+     */
+    public ItemJsonCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(
+                    "Max entries should be greater than zero.");
+        }
+        entries = new LruMap(maxEntries);
+    }
+
+    /**
+     * Removes the cached data of all the items of the given data provider.
+     *
+     * @param dataProvider
+     *            the data provider whose items to remove
+     */
+    public synchronized void invalidate(DataProvider<?, ?> dataProvider) {
+        entries.keySet().removeIf(key -> key.dataProvider == dataProvider);
+    }
+
+    /**
+     * Removes the cached data of all the items.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Gets the number of items with cached data.
+     *
+     * @return the number of entries
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Removes the cached data of a single item.
+     */
+    synchronized void invalidate(DataProvider<?, ?> dataProvider,
+            Object itemId) {
+        entries.remove(new Key(dataProvider, itemId));
+    }
+
+    /**
+     * Puts the data of the given item into the JSON object, either from the
+     * cache or by generating and caching it with the given generator.
+     */
+    <T> void generateData(DataProvider<T, ?> dataProvider, T item,
+            JsonObject json, DataGenerator<T> generator) {
+        Key key = new Key(dataProvider, dataProvider.getId(item));
+        JsonObject data;
+        synchronized (this) {
+            data = entries.get(key);
+        }
+        if (data == null) {
+            data = Json.createObject();
+            generator.generateData(item, data);
+            synchronized (this) {
+                entries.put(key, data);
+            }
+        }
+        for (String name : data.keys()) {
+            json.put(name, data.get(name));
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.vaadin.flow.data.provider.DataChangeEvent;
+import com.vaadin.flow.data.provider.DataChangeEvent.DataRefreshEvent;
+import com.vaadin.flow.data.provider.ListDataProvider;
+import com.vaadin.flow.function.SerializableFunction;
+import com.vaadin.flow.function.SerializablePredicate;
+import com.vaadin.flow.function.SerializableSupplier;
+
+/**
+ * An n-gram index of the lower case item labels of a {@link ListDataProvider}.
+ * It is used by {@link ComboBox} for answering the case insensitive substring
+ * queries of the default item filter without converting the label of every
+ * item on every filter change. {@link IndexedDataProvider} looks up the
+ * matching items from the index instead of testing every item.
+ * <p>
+ * All the substrings of up to {@link #GRAM_LENGTH} characters are indexed,
+ * which takes a few dozen index entries per item of a typical label. The index
+ * is updated incrementally when the data provider is refreshed, so only the
+ * items with a changed label are re-indexed. The index can be used
+ * from several threads, for example when the items are fetched with an
+ * executor.
+ *
+ * @param <T>
+ *            the type of the items
+ * @author Vaadin Ltd
+ */
+class ItemLabelIndex<T> implements Serializable {
+
+    /**
+     * The filter created by {@link ItemLabelIndex#createFilter(String)}, which
+     * also tells the filter text it was created for.
+     */
+    static final class LabelFilter<T> implements SerializablePredicate<T> {
+        private final ItemLabelIndex<T> index;
+        private final String filterText;
+
+        private LabelFilter(ItemLabelIndex<T> index, String filterText) {
+            this.index = index;
+            this.filterText = filterText;
+        }
+
+        @Override
+        public boolean test(T item) {
+            return index.matches(filterText, item);
+        }
+
+        String getFilterText() {
+            return filterText;
+        }
+
+        boolean isFrom(ItemLabelIndex<?> labelIndex) {
+            return index == labelIndex;
+        }
+    }
+
+    /**
+     * The largest length of the indexed substrings. All the substrings up to
+     * this length are indexed, so that the matches of a filter of at most
+     * this length are looked up directly, and longer filters are verified
+     * only against the items containing its rarest substring.
+     */
+    static final int GRAM_LENGTH = 3;
+
+    private final ListDataProvider<T> dataProvider;
+    private final SerializableFunction<T, String> labelGenerator;
+    private final SerializableSupplier<Locale> localeSupplier;
+
+    private Locale locale;
+    private final Map<Object, String> labels = new HashMap<>();
+    private final Map<Object, T> items = new HashMap<>();
+    // The order of the items in the data provider
+    private final Map<Object, Integer> positions = new HashMap<>();
+    private final Map<String, Set<Object>> grams = new HashMap<>();
+
+    private String cachedFilter;
+    private Set<Object> cachedIds;
+    // The items of cachedIds in the order of the data provider, sorted when
+    // first needed
+    private List<T> cachedItems;
+
+    /**
+     * Creates a new index for the items of the given data provider.
+     *
+     * @param dataProvider
+     *            the data provider to index, not <code>null</code>
+     * @param labelGenerator
+     *            the function producing the label of an item, not
+     *            <code>null</code>
+     * @param localeSupplier
+     *            the supplier of the locale used for converting the labels and
+     *            the filters to lower case, not <code>null</code>
+     */
+    ItemLabelIndex(ListDataProvider<T> dataProvider,
+            SerializableFunction<T, String> labelGenerator,
+            SerializableSupplier<Locale> localeSupplier) {
+        this.dataProvider = dataProvider;
+        this.labelGenerator = labelGenerator;
+        this.localeSupplier = localeSupplier;
+        this.locale = localeSupplier.get();
+        refreshAll();
+    }
+
+    /**
+     * Creates a filter which accepts the items whose label contains the given
+     * text, ignoring case.
+     *
+     * @param filterText
+     *            the text typed by the user, not <code>null</code>
+     * @return a filter for the data provider
+     */
+    SerializablePredicate<T> createFilter(String filterText) {
+        return new LabelFilter<>(this, filterText);
+    }
+
+    /**
+     * Finds the items whose label contains the given text, ignoring case,
+     * without testing the items which don't contain the n-grams of the text.
+     *
+     * @param filterText
+     *            the text typed by the user, not <code>null</code>
+     * @return the matching items in the order of the data provider, not to
+     *         be modified
+     */
+    synchronized List<T> findItems(String filterText) {
+        if (filterText.isEmpty()) {
+            Collection<T> allItems = dataProvider.getItems();
+            return allItems instanceof List
+                    ? Collections.unmodifiableList((List<T>) allItems)
+                    : new ArrayList<>(allItems);
+        }
+        Set<Object> ids = findCachedIds(filterText);
+        if (cachedItems == null) {
+            List<Object> sortedIds = new ArrayList<>(ids);
+            sortedIds.sort(Comparator.comparingInt(positions::get));
+            cachedItems = Collections.unmodifiableList(sortedIds.stream()
+                    .map(items::get).collect(Collectors.toList()));
+        }
+        return cachedItems;
+    }
+
+    /**
+     * Counts the items whose label contains the given text, ignoring case.
+     *
+     * @param filterText
+     *            the text typed by the user, not <code>null</code>
+     * @return the count of the matching items
+     */
+    synchronized int countItems(String filterText) {
+        if (filterText.isEmpty()) {
+            return dataProvider.getItems().size();
+        }
+        return findCachedIds(filterText).size();
+    }
+
+    /**
+     * Gets the indexed data provider.
+     *
+     * @return the indexed data provider
+     */
+    ListDataProvider<T> getDataProvider() {
+        return dataProvider;
+    }
+
+    /**
+     * Updates the index after a change in the data provider.
+     *
+     * @param event
+     *            the data change event
+     */
+    synchronized void onDataChange(DataChangeEvent<T> event) {
+        if (event instanceof DataRefreshEvent) {
+            refreshItem(((DataRefreshEvent<T>) event).getItem());
+        } else {
+            refreshAll();
+        }
+    }
+
+    /**
+     * Re-indexes all the items of the data provider. Items with an unchanged
+     * label are kept as they are and the items no longer in the data provider
+     * are removed from the index.
+     */
+    synchronized void refreshAll() {
+        Set<Object> removed = new HashSet<>(labels.keySet());
+        positions.clear();
+        for (T item : dataProvider.getItems()) {
+            Object id = dataProvider.getId(item);
+            removed.remove(id);
+            positions.putIfAbsent(id, positions.size());
+            index(id, item);
+        }
+        removed.forEach(id -> {
+            items.remove(id);
+            unindex(id, labels.remove(id));
+        });
+        cachedFilter = null;
+    }
+
+    /**
+     * Re-indexes a single item.
+     *
+     * @param item
+     *            the item to re-index
+     */
+    synchronized void refreshItem(T item) {
+        Object id = dataProvider.getId(item);
+        positions.putIfAbsent(id, positions.size());
+        index(id, item);
+        cachedFilter = null;
+    }
+
+    private synchronized boolean matches(String filterText, T item) {
+        if (filterText.isEmpty()) {
+            return true;
+        }
+        return findCachedIds(filterText).contains(dataProvider.getId(item));
+    }
+
+    private Set<Object> findCachedIds(String filterText) {
+        Locale currentLocale = localeSupplier.get();
+        if (!currentLocale.equals(locale)) {
+            locale = currentLocale;
+            labels.clear();
+            grams.clear();
+            refreshAll();
+        }
+        String filter = filterText.toLowerCase(locale);
+        if (!filter.equals(cachedFilter)) {
+            cachedIds = findIds(filter);
+            cachedItems = null;
+            cachedFilter = filter;
+        }
+        return cachedIds;
+    }
+
+    private Set<Object> findIds(String filter) {
+        if (filter.length() <= GRAM_LENGTH) {
+            // Indexed as such, so every item containing it matches
+            Set<Object> ids = grams.get(filter);
+            return ids == null ? Collections.emptySet() : new HashSet<>(ids);
+        }
+
+        List<Set<Object>> postings = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= filter.length(); i++) {
+            Set<Object> ids = grams.get(filter.substring(i, i + GRAM_LENGTH));
+            if (ids == null) {
+                return Collections.emptySet();
+            }
+            postings.add(ids);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+
+        // Start from the rarest n-gram and verify the candidates, since
+        // containing all the n-grams doesn't mean containing the filter
+        Set<Object> result = new HashSet<>();
+        for (Object id : postings.get(0)) {
+            if (labels.get(id).contains(filter)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    private void index(Object id, T item) {
+        items.put(id, item);
+        String label = labelGenerator.apply(item).toLowerCase(locale);
+        String previous = labels.put(id, label);
+        if (label.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            unindex(id, previous);
+        }
+        for (String gram : getGrams(label)) {
+            grams.computeIfAbsent(gram, key -> new HashSet<>()).add(id);
+        }
+    }
+
+    private void unindex(Object id, String label) {
+        for (String gram : getGrams(label)) {
+            Set<Object> ids = grams.get(gram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static Set<String> getGrams(String label) {
+        Set<String> labelGrams = new HashSet<>();
+        for (int length = 1; length <= GRAM_LENGTH; length++) {
+            for (int i = 0; i + length <= label.length(); i++) {
+                labelGrams.add(label.substring(i, i + length));
+            }
+        }
+        return labelGrams;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import com.vaadin.flow.data.provider.DataProvider;
+
+/**
+ * A least recently used cache of the items fetched by {@link ComboBox} from its
+ * data provider, keyed by the filter string typed by the user, the function
+ * converting it to the filter of the data provider and the fetched range. It
+ * makes typing, deleting and retyping the same filter reuse the previously
+ * fetched items instead of querying the data provider again.
+ * <p>
+ * A cache can be used by a single ComboBox, or shared by several ComboBoxes,
+ * for example by storing it in the session. The cached items are kept
+ * separately for each data provider and filter converter, so ComboBoxes
+ * share the items only if they use the same filter converter instance, such
+ * as the one used by {@link ComboBox#setDataProvider(DataProvider)}. The
+ * items of a data provider are removed from the cache when the data provider
+ * is refreshed.
+ *
+ * @see ComboBox#setPageCache(PageCache)
+ * @author Vaadin Ltd
+ */
+public class PageCache implements Serializable {
+
+    private static final class Key implements Serializable {
+        private final DataProvider<?, ?> dataProvider;
+        private final Object filterConverter;
+        private final String filter;
+        private final int offset;
+        private final int limit;
+
+        private Key(DataProvider<?, ?> dataProvider, Object filterConverter,
+                String filter, int offset, int limit) {
+            this.dataProvider = dataProvider;
+            this.filterConverter = filterConverter;
+            this.filter = filter;
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return dataProvider == other.dataProvider
+                    && filterConverter == other.filterConverter
+                    && Objects.equals(filter, other.filter)
+                    && offset == other.offset && limit == other.limit;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(dataProvider),
+                    System.identityHashCode(filterConverter), filter, offset,
+                    limit);
+        }
+    }
+
+    private static final class Entry implements Serializable {
+        private final Object value;
+        private final long created;
+
+        private Entry(Object value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+
+    private static final class LruMap extends LinkedHashMap<Key, Entry> {
+        private final int maxEntries;
+
+        private LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    // Size entries use this offset in their key
+    private static final int SIZE_OFFSET = -1;
+
+    private final long timeToLiveMillis;
+    private final LruMap entries;
+
+    /**
+     * Creates a cache with the given maximum number of entries, whose entries
+     * don't expire.
+     *
+     * @param maxEntries
+     *            the maximum number of fetched ranges and sizes to keep,
+     *            greater than zero
+     */
+    public PageCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * Creates a cache with the given maximum number of entries and time to
+     * live of the entries.
+     *
+     * @param maxEntries
+     *            the maximum number of fetched ranges and sizes to keep,
+     *            greater than zero
+     * @param timeToLive
+     *            the time after which an entry is not used anymore, or
+     *            <code>null</code> if the entries don't expire
+     */
+    public PageCache(int maxEntries, Duration timeToLive) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(
+                    "Max entries should be greater than zero.");
+        }
+        if (timeToLive != null && timeToLive.isNegative()) {
+            throw new IllegalArgumentException(
+                    "Time to live should not be negative.");
+        }
+        entries = new LruMap(maxEntries);
+        timeToLiveMillis = timeToLive == null ? -1 : timeToLive.toMillis();
+    }
+
+    /**
+     * Removes all the cached items of the given data provider.
+     *
+     * @param dataProvider
+     *            the data provider whose items to remove
+     */
+    public synchronized void invalidate(DataProvider<?, ?> dataProvider) {
+        entries.keySet().removeIf(key -> key.dataProvider == dataProvider);
+    }
+
+    /**
+     * Removes all the cached items.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Gets the number of entries in the cache, including the expired ones
+     * not yet removed.
+     *
+     * @return the number of entries
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    synchronized List<?> getItems(DataProvider<?, ?> dataProvider,
+            Object filterConverter, String filter, int offset, int limit) {
+        return (List<?>) get(
+                new Key(dataProvider, filterConverter, filter, offset, limit));
+    }
+
+    synchronized void putItems(DataProvider<?, ?> dataProvider,
+            Object filterConverter, String filter, int offset, int limit,
+            List<?> items) {
+        put(new Key(dataProvider, filterConverter, filter, offset, limit),
+                items);
+    }
+
+    synchronized Integer getSize(DataProvider<?, ?> dataProvider,
+            Object filterConverter, String filter) {
+        return (Integer) get(new Key(dataProvider, filterConverter, filter,
+                SIZE_OFFSET, 0));
+    }
+
+    synchronized void putSize(DataProvider<?, ?> dataProvider,
+            Object filterConverter, String filter, int size) {
+        put(new Key(dataProvider, filterConverter, filter, SIZE_OFFSET, 0),
+                size);
+    }
+
+    /**
+     * Removes the cached ranges of the given data provider which contain an
+     * item matching the given predicate.
+     */
+    synchronized void invalidateItems(DataProvider<?, ?> dataProvider,
+            Predicate<Object> itemMatcher) {
+        entries.entrySet()
+                .removeIf(entry -> entry.getKey().dataProvider == dataProvider
+                        && entry.getValue().value instanceof List
+                        && ((List<?>) entry.getValue().value).stream()
+                                .anyMatch(itemMatcher));
+    }
+
+    private Object get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (timeToLiveMillis >= 0 && System.currentTimeMillis()
+                - entry.created > timeToLiveMillis) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private void put(Key key, Object value) {
+        entries.put(key, new Entry(value, System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.vaadin.flow.data.provider.DataChangeEvent;
+import com.vaadin.flow.data.provider.DataChangeEvent.DataRefreshEvent;
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.DataProviderListener;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableFunction;
+import com.vaadin.flow.function.SerializableSupplier;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * A data provider which answers the queries of {@link ComboBox} from a
+ * {@link PageCache} when possible, and otherwise delegates them to the actual
+ * data provider and caches the results.
+ * <p>
+ * The results are cached by the filter string typed by the user, since the
+ * filter objects converted from it don't necessarily implement equality.
+ *
+ * @param <T>
+ *            the type of the items
+ * @param <F>
+ *            the type of the filter
+ * @author Vaadin Ltd
+ */
+class PageCachingDataProvider<T, F> implements DataProvider<T, F> {
+
+    private final DataProvider<T, F> delegate;
+    // The data provider the cached items are kept for, skipping a wrapper
+    // loading the items asynchronously
+    private final DataProvider<T, F> source;
+    private final PageCache cache;
+    // The filter string is converted differently by different converters
+    private final Object filterConverter;
+    private final SerializableSupplier<String> filterText;
+
+    /**
+     * Creates a new caching data provider.
+     *
+     * @param delegate
+     *            the actual data provider, not <code>null</code>
+     * @param cache
+     *            the cache to use, not <code>null</code>
+     * @param filterConverter
+     *            the function converting filter strings to the filter type of
+     *            the data provider, not <code>null</code>
+     * @param filterText
+     *            the supplier of the filter string which the filter of the
+     *            queries is converted from, not <code>null</code>
+     */
+    PageCachingDataProvider(DataProvider<T, F> delegate, PageCache cache,
+            SerializableFunction<String, F> filterConverter,
+            SerializableSupplier<String> filterText) {
+        this.delegate = delegate;
+        source = delegate instanceof AsyncDataProvider
+                ? ((AsyncDataProvider<T, F>) delegate).getDelegate()
+                : delegate;
+        this.cache = cache;
+        this.filterConverter = filterConverter;
+        this.filterText = filterText;
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return delegate.isInMemory();
+    }
+
+    @Override
+    public int size(Query<T, F> query) {
+        if (source instanceof FetchWithSizeDataProvider) {
+            // Its size grows as more items are fetched, so it can't be cached
+            return delegate.size(query);
+        }
+        String filter = filterText.get();
+        Integer size = cache.getSize(source, filterConverter, filter);
+        if (size == null) {
+            size = delegate.size(query);
+            cache.putSize(source, filterConverter, filter, size);
+        }
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Stream<T> fetch(Query<T, F> query) {
+        String filter = filterText.get();
+        List<T> items = (List<T>) cache.getItems(source, filterConverter,
+                filter, query.getOffset(), query.getLimit());
+        if (items == null) {
+            items = delegate.fetch(query).collect(Collectors.toList());
+            cache.putItems(source, filterConverter, filter,
+                    query.getOffset(), query.getLimit(), items);
+        } else if (source instanceof FetchWithSizeDataProvider) {
+            // Its size grows as more items are fetched
+            ((FetchWithSizeDataProvider<T>) source).onItemsFetched(
+                    filter == null ? "" : filter, query.getOffset(),
+                    query.getLimit(), items.size());
+        }
+        return items.stream();
+    }
+
+    @Override
+    public void refreshItem(T item) {
+        delegate.refreshItem(item);
+    }
+
+    @Override
+    public void refreshAll() {
+        delegate.refreshAll();
+    }
+
+    @Override
+    public Registration addDataProviderListener(
+            DataProviderListener<T> listener) {
+        return delegate.addDataProviderListener(listener);
+    }
+
+    @Override
+    public Object getId(T item) {
+        return delegate.getId(item);
+    }
+
+    /**
+     * Gets the actual data provider.
+     *
+     * @return the actual data provider
+     */
+    DataProvider<T, F> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Checks whether the count and the given range of the items for the given
+     * filter string are in the cache.
+     *
+     * @param filter
+     *            the filter string
+     * @param offset
+     *            the index of the first item of the range
+     * @param limit
+     *            the number of items in the range
+     * @return {@code true} if the actual data provider is not queried for
+     *         the range, {@code false} otherwise
+     */
+    boolean isCached(String filter, int offset, int limit) {
+        if (source instanceof FetchWithSizeDataProvider) {
+            // Its size is not cached
+            return false;
+        }
+        return cache.getSize(source, filterConverter, filter) != null
+                && (limit <= 0 || cache.getItems(source, filterConverter,
+                        filter, offset, limit) != null);
+    }
+
+    /**
+     * Removes the affected items of the actual data provider from the cache.
+     *
+     * @param event
+     *            the data change event of the actual data provider
+     */
+    @SuppressWarnings("unchecked")
+    void onDataChange(DataChangeEvent<T> event) {
+        if (event instanceof DataRefreshEvent) {
+            Object id = source
+                    .getId(((DataRefreshEvent<T>) event).getItem());
+            cache.invalidateItems(source,
+                    item -> Objects.equals(id, source.getId((T) item)));
+        } else {
+            cache.invalidate(source);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.vaadin.flow.component.combobox.ComboBox.ItemFilter;
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.DataProviderListener;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableSupplier;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * A data provider which answers the queries for a filter string extending a
+ * previous one by filtering the items of the previous filter in memory, if all
+ * of them have been fetched. Otherwise the queries are delegated to the actual
+ * data provider. The fetched items are kept only for a filter string matching
+ * at most a given number of items, so that scrolling a large result doesn't
+ * keep all of its items in memory.
+ *
+ * @param <T>
+ *            the type of the items
+ * @param <F>
+ *            the type of the filter
+ * @author Vaadin Ltd
+ */
+class RefiningDataProvider<T, F> implements DataProvider<T, F> {
+
+    private final DataProvider<T, F> delegate;
+    private final ItemFilter<T> itemFilter;
+    private final SerializableSupplier<String> filterText;
+    private final SerializableSupplier<Integer> maxLoadedItems;
+
+    // Items fetched from the beginning for loadedFilter, all of them fetched
+    // when their count reaches loadedSize
+    private String loadedFilter;
+    private List<T> loadedItems;
+    private int loadedSize = -1;
+
+    // Items filtered in memory for refinedFilter
+    private String refinedFilter;
+    private List<T> refinedItems;
+
+    /**
+     * Creates a new refining data provider.
+     *
+     * @param delegate
+     *            the actual data provider, not <code>null</code>
+     * @param itemFilter
+     *            the filter matching the items in memory the same way as the
+     *            actual data provider does, not <code>null</code>
+     * @param filterText
+     *            the supplier of the filter string which the filter of the
+     *            queries is converted from, not <code>null</code>
+     * @param maxLoadedItems
+     *            the supplier of the largest count of items matching a filter
+     *            string for which the fetched items are kept, not
+     *            <code>null</code>
+     */
+    RefiningDataProvider(DataProvider<T, F> delegate, ItemFilter<T> itemFilter,
+            SerializableSupplier<String> filterText,
+            SerializableSupplier<Integer> maxLoadedItems) {
+        this.delegate = delegate;
+        this.itemFilter = itemFilter;
+        this.filterText = filterText;
+        this.maxLoadedItems = maxLoadedItems;
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return delegate.isInMemory();
+    }
+
+    @Override
+    public int size(Query<T, F> query) {
+        String filter = filterText.get();
+        List<T> refined = refine(filter);
+        if (refined != null) {
+            return refined.size();
+        }
+        loadedSize = delegate.size(query);
+        loadedFilter = filter;
+        // Too many items to be worth keeping for refining
+        loadedItems = loadedSize <= maxLoadedItems.get() ? new ArrayList<>()
+                : null;
+        return loadedSize;
+    }
+
+    @Override
+    public Stream<T> fetch(Query<T, F> query) {
+        String filter = filterText.get();
+        List<T> refined = refine(filter);
+        if (refined != null) {
+            int offset = Math.min(query.getOffset(), refined.size());
+            int end = Math.min(offset + query.getLimit(), refined.size());
+            return new ArrayList<>(refined.subList(offset, end)).stream();
+        }
+        List<T> items = delegate.fetch(query).collect(Collectors.toList());
+        if (loadedItems != null && filter != null
+                && filter.equals(loadedFilter)
+                && query.getOffset() == loadedItems.size()) {
+            loadedItems.addAll(items);
+        }
+        return items.stream();
+    }
+
+    @Override
+    public void refreshItem(T item) {
+        delegate.refreshItem(item);
+    }
+
+    @Override
+    public void refreshAll() {
+        delegate.refreshAll();
+    }
+
+    @Override
+    public Registration addDataProviderListener(
+            DataProviderListener<T> listener) {
+        return delegate.addDataProviderListener(listener);
+    }
+
+    @Override
+    public Object getId(T item) {
+        return delegate.getId(item);
+    }
+
+    /**
+     * Forgets the fetched items, so that they are fetched again from the
+     * actual data provider.
+     */
+    void clear() {
+        loadedFilter = null;
+        loadedItems = null;
+        loadedSize = -1;
+        refinedFilter = null;
+        refinedItems = null;
+    }
+
+    /**
+     * Checks whether the queries for the given filter string are answered by
+     * filtering the previously fetched items in memory.
+     *
+     * @param filter
+     *            the filter string
+     * @return {@code true} if the actual data provider is not queried for
+     *         the filter, {@code false} otherwise
+     */
+    boolean isRefinable(String filter) {
+        return refine(filter) != null;
+    }
+
+    private List<T> refine(String filter) {
+        if (filter == null) {
+            return null;
+        }
+        if (filter.equals(refinedFilter)) {
+            return refinedItems;
+        }
+
+        List<T> base;
+        if (refinedFilter != null && filter.startsWith(refinedFilter)) {
+            base = refinedItems;
+        } else if (loadedFilter != null && filter.startsWith(loadedFilter)
+                && loadedItems != null && loadedItems.size() >= loadedSize) {
+            base = loadedItems;
+        } else {
+            refinedFilter = null;
+            refinedItems = null;
+            return null;
+        }
+
+        refinedItems = base.stream()
+                .filter(item -> itemFilter.test(item, filter))
+                .collect(Collectors.toList());
+        refinedFilter = filter;
+        return refinedItems;
+    }
+}
@@ -9,8 +9,30 @@ window.Vaadin.Flow.comboBoxConnector = {
 
     let pageCallbacks = {};
     let cache = {};
-    let firstPage;
+    // All the items when filtering in the client-side
+    let clientSideItems;
+    let clientSideItemsRequested = false;
+    let lastClientSideFilter;
+    let lastClientSideResult;
+    // Indexes of the items by their keys, in comboBox.filteredItems and in
+    // clientSideItems, for updating refreshed items without searching them
+    let loadedIndexes = new Map();
+    let clientSideIndexes = new Map();
+    // The items held before the last reset by their keys, for reusing the
+    // same objects for the items which are sent again unchanged
+    let itemsBeforeReset = new Map();
     let lastFilter = '';
+    // The end of the largest range requested for lastFilter
+    let requestedEnd = 0;
+    // The end of the range last requested for a page the user scrolled to
+    let demandedEnd = 0;
+    // Pages handed to the web component, for removing the ones outside of
+    // the active window
+    let committedPages = new Set();
+    // The time and range of the last request, until items of the range
+    // are received. A request answered without any items is not measured.
+    let pendingRequest;
+    let roundTripTime;
 
     comboBox.size = 0; // To avoid NaN here and there before we get proper data
 
@@ -20,18 +42,35 @@ window.Vaadin.Flow.comboBoxConnector = {
         throw 'Invalid pageSize';
       }
 
+      if (comboBox._clientSideFilter && !clientSideItems &&
+          !clientSideItemsRequested && cache[0]) {
+        // All the items were preloaded when the ComboBox was attached
+        collectClientSideItems();
+      }
+
       const filterChanged = params.filter !== lastFilter;
       if (filterChanged) {
         cache = {};
+        loadedIndexes = new Map();
+        committedPages = new Set();
         lastFilter = params.filter;
+        requestedEnd = 0;
       }
 
-      if (comboBox._clientSideFilter && firstPage) {
-        // Data size is less than page size and client has all the data,
-        // so client-side filtering is used
-        const filteredItems = firstPage.filter(item =>
-          comboBox.$connector.filter(item, comboBox.filter));
-        callback(filteredItems, filteredItems.size);
+      if (comboBox._clientSideFilter) {
+        // Data size is within the client-side filter threshold, so all the
+        // data is loaded once and filtered in the client-side
+        if (clientSideItems) {
+          commitClientSidePage(params.page, callback);
+        } else {
+          pageCallbacks[params.page] = callback;
+          if (!clientSideItemsRequested) {
+            clientSideItemsRequested = true;
+            const threshold = comboBox._clientSideFilterThreshold !== undefined ?
+              comboBox._clientSideFilterThreshold : comboBox.pageSize;
+            requestRange(0, Math.max(threshold, comboBox.pageSize), '');
+          }
+        }
         return;
       }
 
@@ -39,14 +78,19 @@ window.Vaadin.Flow.comboBoxConnector = {
         // This may happen after skipping pages by scrolling fast
         commitPage(params.page, callback);
       } else {
+        // The range starts from 0, or from the start of the active window,
+        // so that the already loaded items stay active in the server. Only
+        // the missing part of the range is fetched from the data provider
+        // and sent to the client.
         const upperLimit = params.pageSize * (params.page + 1);
 
         if (filterChanged) {
           this._debouncer = Polymer.Debouncer.debounce(
             this._debouncer,
-            Polymer.Async.timeOut.after(500),
+            Polymer.Async.timeOut.after(getFilterDebounceTimeout()),
             () => {
-              comboBox.$server.setRequestedRange(0, upperLimit, params.filter);
+              demandedEnd = upperLimit;
+              requestWindow(upperLimit, params.filter, false);
               if (params.filter === '') {
                 // Fixes the case when the filter changes 
                 // from '' to something else and back to '' 
@@ -57,21 +101,146 @@ window.Vaadin.Flow.comboBoxConnector = {
             });
         }
         else {
-          comboBox.$server.setRequestedRange(0, upperLimit, params.filter);
+          demandedEnd = upperLimit;
+          requestWindow(upperLimit, params.filter, false);
         }
 
         pageCallbacks[params.page] = callback;
       }
     }
 
+    const getActiveWindowSize = function () {
+      // Must match ComboBox.getActiveWindowSize() in the server
+      const maxActiveItems = comboBox._maxActiveItems || 0;
+      if (maxActiveItems === 0 || comboBox._clientSideFilter) {
+        // All the items are needed for filtering in the client-side
+        return 0;
+      }
+      return Math.max(maxActiveItems, 2 * comboBox.pageSize);
+    }
+
+    const requestWindow = function (end, filter, prefetch) {
+      let start = 0;
+      const windowSize = getActiveWindowSize();
+      if (windowSize > 0) {
+        start = Math.max(0, Math.ceil((end - windowSize) / comboBox.pageSize) *
+          comboBox.pageSize);
+        evictPages(start, end);
+      }
+      if (prefetch) {
+        requestedEnd = Math.max(requestedEnd, end);
+        comboBox.$server.prefetchRange(start, end - start, filter);
+      } else {
+        requestRange(start, end - start, filter);
+      }
+    }
+
+    const evictPages = function (start, end) {
+      // The server removes the items outside of the window, so they are
+      // replaced with placeholders and requested again when shown
+      const firstPage = start / comboBox.pageSize;
+      const endPage = Math.ceil(end / comboBox.pageSize);
+      Object.keys(cache).forEach(page => {
+        if (page < firstPage || page >= endPage) {
+          delete cache[page];
+        }
+      });
+      Object.keys(pageCallbacks).forEach(page => {
+        if (page < firstPage || page >= endPage) {
+          // Resolved without items, so that the page is requested again
+          // when its placeholders are shown
+          const callback = pageCallbacks[page];
+          delete pageCallbacks[page];
+          callback([], comboBox.size);
+        }
+      });
+      committedPages.forEach(page => {
+        if (page < firstPage || page >= endPage) {
+          committedPages.delete(page);
+          const pageStart = page * comboBox.pageSize;
+          const pageEnd = Math.min(pageStart + comboBox.pageSize,
+            comboBox.filteredItems ? comboBox.filteredItems.length : 0);
+          for (let i = pageStart; i < pageEnd; i++) {
+            comboBox.set('filteredItems.' + i, new Vaadin.ComboBoxPlaceholder());
+          }
+        }
+      });
+    }
+
+    const requestRange = function (start, length, filter) {
+      pendingRequest = {
+        time: Date.now(),
+        start: start,
+        end: start + length,
+        answered: false
+      };
+      requestedEnd = Math.max(requestedEnd, start + length);
+      comboBox.$server.setRequestedRange(start, length, filter);
+    }
+
+    const prefetch = function (page) {
+      // Request the pages after the one the user has scrolled to, so that
+      // they are in the cache when the web component asks for them
+      const prefetchPages = comboBox._prefetchPages || 0;
+      if (prefetchPages <= 0 || comboBox._clientSideFilter) {
+        return;
+      }
+      let end = Math.min((page + 1 + prefetchPages) * comboBox.pageSize,
+        comboBox.size);
+      const windowSize = getActiveWindowSize();
+      if (windowSize > 0) {
+        // Keep the last requested page in the window
+        end = Math.min(end, demandedEnd - comboBox.pageSize + windowSize);
+      }
+      if (end > requestedEnd) {
+        requestWindow(end, lastFilter, true);
+      }
+    }
+
+    const getFilterDebounceTimeout = function () {
+      const timeout = comboBox._filterDebounceTimeout !== undefined ?
+        comboBox._filterDebounceTimeout : 500;
+      if (comboBox._adaptiveFilterDebounce && roundTripTime !== undefined) {
+        // Wait about as long as the server took to answer the earlier
+        // requests, so that a slow server is not flooded with filters
+        // and a fast one responds without an unnecessary delay
+        return Math.min(Math.max(roundTripTime, 50), 5000);
+      }
+      return timeout;
+    }
+
     comboBox.$connector.filter = function (item, filter) {
       filter = filter ? filter.toString().toLowerCase() : '';
       return comboBox._getItemLabel(item).toString().toLowerCase().indexOf(filter) > -1;
     }
 
+    const decodeItems = function (items) {
+      if (Array.isArray(items)) {
+        return items;
+      }
+      // Compact format: an array of values for each property name,
+      // with null for the properties missing from an item
+      const names = Object.keys(items.columns);
+      const decoded = new Array(items.length);
+      for (let i = 0; i < items.length; i++) {
+        const item = {};
+        for (let j = 0; j < names.length; j++) {
+          const value = items.columns[names[j]][i];
+          if (value !== null) {
+            item[names[j]] = value;
+          }
+        }
+        decoded[i] = item;
+      }
+      return decoded;
+    }
+
     comboBox.$connector.set = function (index, items) {
-      if (index % comboBox.pageSize != 0) {
-        throw 'Got new data to index ' + index + ' which is not aligned with the page size of ' + comboBox.pageSize;
+      items = reuseItems(decodeItems(items));
+
+      if (pendingRequest && index < pendingRequest.end &&
+          index + items.length >= pendingRequest.start) {
+        pendingRequest.answered = true;
       }
 
       if (index === 0 && items.length === 0 && pageCallbacks[0]) {
@@ -81,70 +250,205 @@ window.Vaadin.Flow.comboBoxConnector = {
         return;
       }
 
-      const firstPageToSet = index / comboBox.pageSize;
-      const updatedPageCount = Math.ceil(items.length / comboBox.pageSize);
+      let offset = 0;
+      if (index % comboBox.pageSize != 0) {
+        // The rest of a page whose first items were sent progressively
+        const page = Math.floor(index / comboBox.pageSize);
+        offset = Math.min(items.length, (page + 1) * comboBox.pageSize - index);
+        appendToPage(page, index, items.slice(0, offset));
+      }
+
+      const firstPageToSet = (index + offset) / comboBox.pageSize;
+      const updatedPageCount = Math.ceil((items.length - offset) / comboBox.pageSize);
 
       for (let i = 0; i < updatedPageCount; i++) {
         let page = firstPageToSet + i;
-        let slice = items.slice(i * comboBox.pageSize, (i + 1) * comboBox.pageSize);
+        let slice = items.slice(offset + i * comboBox.pageSize, offset + (i + 1) * comboBox.pageSize);
 
         cache[page] = slice;
       }
     };
 
+    const reuseItems = function (items) {
+      if (itemsBeforeReset.size === 0) {
+        return items;
+      }
+      for (let i = 0; i < items.length; i++) {
+        const previous = itemsBeforeReset.get(items[i].key);
+        // The keys are only the same for the same item, so the item is
+        // unchanged if its properties are
+        if (previous && JSON.stringify(previous) === JSON.stringify(items[i])) {
+          items[i] = previous;
+        }
+      }
+      return items;
+    }
+
+    const collectItems = function () {
+      const items = new Map();
+      const add = function (item) {
+        if (item && item.key !== undefined &&
+            !(item instanceof Vaadin.ComboBoxPlaceholder)) {
+          items.set(item.key, item);
+        }
+      };
+      (comboBox.filteredItems || []).forEach(add);
+      (clientSideItems || []).forEach(add);
+      Object.getOwnPropertyNames(cache).forEach(page => cache[page].forEach(add));
+      return items;
+    }
+
+    const appendToPage = function (page, index, items) {
+      if (cache[page]) {
+        // Not yet handed to the web component
+        cache[page] = cache[page].concat(items);
+        return;
+      }
+      // Replace the placeholders of the already shown page one by one, since
+      // replacing the whole filteredItems array would reset the state of the
+      // open overlay, such as its scroll position
+      indexItems(loadedIndexes, items, index);
+      for (let i = 0; i < items.length; i++) {
+        comboBox.set('filteredItems.' + (index + i), items[i]);
+      }
+    }
+
     comboBox.$connector.updateData = function (items) {
+      items = decodeItems(items);
       // IE11 doesn't work with the transpiled version of the forEach.
       for (let i = 0; i < items.length; i++) {
         let item = items[i];
 
-        for (let j = 0; j < comboBox.filteredItems.length; j++) {
-          if (comboBox.filteredItems[j].key === item.key) {
-            comboBox.set('filteredItems.' + j, item);
-            break;
-          }
+        if (clientSideItems && clientSideIndexes.has(item.key)) {
+          clientSideItems[clientSideIndexes.get(item.key)] = item;
+          lastClientSideFilter = undefined;
+        }
+
+        const index = loadedIndexes.get(item.key);
+        const filteredItems = comboBox.filteredItems;
+        if (index !== undefined && filteredItems && filteredItems[index] &&
+            filteredItems[index].key === item.key) {
+          comboBox.set('filteredItems.' + index, item);
         }
       }
     }
 
+    const indexItems = function (indexes, items, start) {
+      for (let i = 0; i < items.length; i++) {
+        indexes.set(items[i].key, start + i);
+      }
+    }
+
+    comboBox.$connector.applyUpdate = function (size, ranges, id) {
+      // Applies all the changes of an update sent by the server at once.
+      // Each range is a [start, items] pair.
+      comboBox.$connector.updateSize(size);
+      for (let i = 0; i < ranges.length; i++) {
+        comboBox.$connector.set(ranges[i][0], ranges[i][1]);
+      }
+      comboBox.$connector.confirm(id);
+    };
+
     comboBox.$connector.updateSize = function (newSize) {
       comboBox.size = newSize;
     };
 
     comboBox.$connector.reset = function () {
+      // Only the items held right now are kept, so the map doesn't grow
+      // with the items the user scrolled past
+      itemsBeforeReset = collectItems();
       pageCallbacks = {};
       cache = {};
-      firstPage = undefined;
+      requestedEnd = 0;
+      demandedEnd = 0;
+      committedPages = new Set();
+      clientSideItems = undefined;
+      clientSideItemsRequested = false;
+      loadedIndexes = new Map();
+      clientSideIndexes = new Map();
+      lastClientSideFilter = undefined;
+      lastClientSideResult = undefined;
       comboBox.clearCache();
     };
 
     comboBox.$connector.confirm = function (id) {
+      if (comboBox._clientSideFilter && clientSideItemsRequested &&
+          !clientSideItems && cache[0]) {
+        collectClientSideItems();
+      }
+
       // We're done applying changes from this batch, resolve outstanding
       // callbacks
       let outstandingRequests = Object.getOwnPropertyNames(pageCallbacks);
       for (let i = 0; i < outstandingRequests.length; i++) {
         let page = outstandingRequests[i];
 
-        if (cache[page]) {
+        if (clientSideItems) {
+          let callback = pageCallbacks[page];
+          delete pageCallbacks[page];
+
+          commitClientSidePage(page, callback);
+        } else if (cache[page]) {
           let callback = pageCallbacks[page];
           delete pageCallbacks[page];
 
           commitPage(page, callback);
+        } else if (page * comboBox.pageSize >= comboBox.size) {
+          // The size shrank when the page turned out to be empty, which
+          // happens when the size is not known beforehand
+          let callback = pageCallbacks[page];
+          delete pageCallbacks[page];
+
+          callback([], comboBox.size);
         }
       }
 
+      if (pendingRequest && pendingRequest.answered) {
+        const measured = Date.now() - pendingRequest.time;
+        roundTripTime = roundTripTime === undefined ? measured :
+          Math.round(0.7 * roundTripTime + 0.3 * measured);
+        pendingRequest = undefined;
+      }
+
       // Let server know we're done
       comboBox.$server.confirmUpdate(id);
     }
 
+    const collectClientSideItems = function () {
+      // Collect all the received pages for client-side filtering
+      clientSideItems = [];
+      for (let page = 0; cache[page]; page++) {
+        clientSideItems = clientSideItems.concat(cache[page]);
+      }
+      cache = {};
+      indexItems(clientSideIndexes, clientSideItems, 0);
+    }
+
     const commitPage = function (page, callback) {
       let data = cache[page];
       delete cache[page];
 
-      if (page == 0) {
-        // Keep the data for client-side filtering
-        firstPage = data;
-      }
+      indexItems(loadedIndexes, data, page * comboBox.pageSize);
+      committedPages.add(Number(page));
       callback(data, comboBox.size);
+      prefetch(Number(page));
+    }
+
+    const commitClientSidePage = function (page, callback) {
+      const filter = comboBox.filter || '';
+      if (filter !== lastClientSideFilter) {
+        lastClientSideResult = clientSideItems.filter(item =>
+          comboBox.$connector.filter(item, filter));
+        lastClientSideFilter = filter;
+      }
+      const start = page * comboBox.pageSize;
+      const data = lastClientSideResult.slice(start, start + comboBox.pageSize);
+      if (start === 0) {
+        // The filtered items are replaced when the filter changes
+        loadedIndexes = new Map();
+      }
+      indexItems(loadedIndexes, data, start);
+      callback(data, lastClientSideResult.length);
     }
   }
 }
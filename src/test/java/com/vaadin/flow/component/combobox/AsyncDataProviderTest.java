@@ -0,0 +1,293 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vaadin.flow.component.combobox.AsyncDataProvider.LoadResult;
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.Query;
+
+public class AsyncDataProviderTest {
+
+    // The numbers from 0 to 99, filtered by their first digits
+    private static final List<String> NUMBERS = IntStream.range(0, 100)
+            .mapToObj(String::valueOf).collect(Collectors.toList());
+
+    // The queries of the data provider, in the order they were made
+    private final List<String> backendQueries = new ArrayList<>();
+    private final AtomicReference<String> filterText = new AtomicReference<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final DataProvider<String, String> dataProvider = DataProvider
+            .fromFilteringCallbacks(query -> {
+                backendQueries.add("fetch " + query.getOffset() + "-"
+                        + (query.getOffset() + query.getLimit()));
+                return numbers(query.getFilter().orElse(""))
+                        .skip(query.getOffset()).limit(query.getLimit());
+            }, query -> {
+                backendQueries.add("size");
+                return (int) numbers(query.getFilter().orElse("")).count();
+            });
+    private final AsyncDataProvider<String, String> asyncProvider = new AsyncDataProvider<>(
+            dataProvider, filter -> filter, filterText::get);
+
+    @Test
+    public void load_queriedOnlyByExecutor() {
+        CompletableFuture<LoadResult<String>> future = asyncProvider
+                .load("1", 0, 50, tasks::add);
+        Assert.assertTrue(backendQueries.isEmpty());
+        Assert.assertFalse(future.isDone());
+
+        runTasks();
+        Assert.assertTrue(future.isDone());
+        // Only the 11 matching numbers are fetched
+        Assert.assertEquals(Arrays.asList("size", "fetch 0-11"),
+                backendQueries);
+    }
+
+    @Test
+    public void loadedSize_nextLoadOnlyFetchesItems() {
+        loadAndApply("1", 0, 5);
+        backendQueries.clear();
+
+        asyncProvider.load("1", 5, 50, tasks::add);
+        runTasks();
+        Assert.assertEquals(Arrays.asList("fetch 5-11"), backendQueries);
+    }
+
+    @Test
+    public void loadedAndApplied_queriesAnsweredFromLoadedItems() {
+        loadAndApply("1", 0, 50);
+        backendQueries.clear();
+
+        filterText.set("1");
+        Assert.assertEquals(11, asyncProvider.size(new Query<>("1")));
+        Assert.assertEquals(Arrays.asList("10", "11"), fetch("1", 1, 2));
+        Assert.assertTrue(backendQueries.isEmpty());
+    }
+
+    @Test
+    public void loadedRangeFromOffset_earlierItemsQueriedFromDataProvider() {
+        loadAndApply("1", 5, 8);
+        backendQueries.clear();
+
+        filterText.set("1");
+        Assert.assertEquals(Arrays.asList("14", "15", "16"),
+                fetch("1", 5, 3));
+        Assert.assertTrue(backendQueries.isEmpty());
+        Assert.assertEquals(Arrays.asList("13", "14"), fetch("1", 4, 2));
+        Assert.assertEquals(Arrays.asList("fetch 4-6"), backendQueries);
+    }
+
+    @Test
+    public void loadedButNotApplied_queriedFromDataProvider() {
+        asyncProvider.load("1", 0, 50, tasks::add);
+        runTasks();
+        backendQueries.clear();
+
+        filterText.set("1");
+        asyncProvider.size(new Query<>("1"));
+        Assert.assertEquals(Arrays.asList("size"), backendQueries);
+    }
+
+    @Test
+    public void otherFilter_queriedFromDataProvider() {
+        loadAndApply("1", 0, 50);
+        backendQueries.clear();
+
+        filterText.set("2");
+        Assert.assertEquals(11, asyncProvider.size(new Query<>("2")));
+        Assert.assertEquals(Arrays.asList("2", "20"), fetch("2", 0, 2));
+        Assert.assertEquals(Arrays.asList("size", "fetch 0-2"),
+                backendQueries);
+    }
+
+    @Test
+    public void clear_queriedFromDataProvider() {
+        loadAndApply("1", 0, 50);
+        asyncProvider.clear();
+        backendQueries.clear();
+
+        filterText.set("1");
+        asyncProvider.size(new Query<>("1"));
+        Assert.assertEquals(Arrays.asList("size"), backendQueries);
+    }
+
+    @Test
+    public void cancelledBeforeFetch_itemsNotFetched() {
+        List<CancellationToken> tokens = new ArrayList<>();
+        AsyncDataProvider<String, String> cancellableProvider = new AsyncDataProvider<>(
+                new CancellableCallbackDataProvider<>(
+                        (filter, offset, limit, cancellation) -> {
+                            tokens.add(cancellation);
+                            return NUMBERS.stream().skip(offset).limit(limit);
+                        }, filter -> NUMBERS.size()),
+                filter -> filter, filterText::get);
+
+        cancellableProvider.load("", 0, 50, tasks::add).cancel(false);
+        runTasks();
+        Assert.assertTrue(tokens.isEmpty());
+    }
+
+    @Test
+    public void cancelledWhileFetching_tokenCancelled() {
+        AtomicReference<CancellationToken> token = new AtomicReference<>();
+        AtomicInteger cancelListenerCalls = new AtomicInteger();
+        AtomicReference<CompletableFuture<LoadResult<String>>> future = new AtomicReference<>();
+        AsyncDataProvider<String, String> cancellableProvider = new AsyncDataProvider<>(
+                new CancellableCallbackDataProvider<>(
+                        (filter, offset, limit, cancellation) -> {
+                            token.set(cancellation);
+                            cancellation.addCancelListener(
+                                    cancelListenerCalls::incrementAndGet);
+                            Assert.assertFalse(cancellation.isCancelled());
+                            // Superseded while the query is running
+                            future.get().cancel(false);
+                            return NUMBERS.stream().skip(offset).limit(limit);
+                        }, filter -> NUMBERS.size()),
+                filter -> filter, filterText::get);
+
+        future.set(cancellableProvider.load("", 0, 50, tasks::add));
+        runTasks();
+        Assert.assertTrue(token.get().isCancelled());
+        Assert.assertEquals(1, cancelListenerCalls.get());
+    }
+
+    @Test
+    public void nonBlocking_loadedWhenStagesComplete() {
+        CompletableFuture<Integer> size = new CompletableFuture<>();
+        CompletableFuture<List<String>> items = new CompletableFuture<>();
+        AsyncDataProvider<String, String> nonBlockingProvider = new AsyncDataProvider<>(
+                new CompletionStageDataProvider<>(
+                        (filter, offset, limit) -> items, filter -> size),
+                filter -> filter, filterText::get);
+        Assert.assertTrue(nonBlockingProvider.isNonBlocking());
+
+        CompletableFuture<LoadResult<String>> future = nonBlockingProvider
+                .load("", 0, 50, null);
+        future.thenAccept(nonBlockingProvider::apply);
+        size.complete(2);
+        Assert.assertFalse(future.isDone());
+        items.complete(Arrays.asList("foo", "bar"));
+        Assert.assertTrue(future.isDone());
+
+        filterText.set("");
+        Assert.assertEquals(2, nonBlockingProvider.size(new Query<>("")));
+    }
+
+    @Test
+    public void nonBlocking_sizeLoaded_answeredWithoutWaiting() {
+        AtomicInteger sizeCalls = new AtomicInteger();
+        List<CompletableFuture<Integer>> sizes = new ArrayList<>();
+        CompletionStageDataProvider<String> stageProvider = new CompletionStageDataProvider<>(
+                (filter, offset, limit) -> new CompletableFuture<>(),
+                filter -> {
+                    sizeCalls.incrementAndGet();
+                    CompletableFuture<Integer> size = new CompletableFuture<>();
+                    sizes.add(size);
+                    return size;
+                });
+
+        stageProvider.sizeAsync(new Query<>(""));
+        sizes.get(0).complete(3);
+        Assert.assertEquals(3, stageProvider.size(new Query<>("")));
+        Assert.assertEquals(1, sizeCalls.get());
+
+        stageProvider.refreshAll();
+        stageProvider.sizeAsync(new Query<>(""));
+        Assert.assertEquals(2, sizeCalls.get());
+    }
+
+    @Test
+    public void nonBlockingCancelled_pendingStageCancelled() {
+        CompletableFuture<Integer> size = new CompletableFuture<>();
+        AsyncDataProvider<String, String> nonBlockingProvider = new AsyncDataProvider<>(
+                new CompletionStageDataProvider<>(
+                        (filter, offset, limit) -> new CompletableFuture<>(),
+                        filter -> size),
+                filter -> filter, filterText::get);
+
+        nonBlockingProvider.load("", 0, 50, null).cancel(false);
+        Assert.assertTrue(size.isCancelled());
+    }
+
+    @Test
+    public void unknownSize_scrolledPastFirstEstimate_sizeGrows() {
+        FetchWithSizeDataProvider<Integer> unknownSizeProvider = new FetchWithSizeDataProvider<>(
+                (filter, offset, limit) -> {
+                    List<Integer> items = IntStream
+                            .range(offset, Math.min(offset + limit, 120))
+                            .boxed().collect(Collectors.toList());
+                    return ComboBox.FetchResult.withMoreItems(items,
+                            items.size() < limit ? 0 : 1);
+                }, 50);
+        AsyncDataProvider<Integer, String> loadingProvider = new AsyncDataProvider<>(
+                unknownSizeProvider, filter -> filter, filterText::get);
+        filterText.set("");
+
+        loadingProvider.load("", 0, 50, tasks::add)
+                .thenAccept(loadingProvider::apply);
+        runTasks();
+        Assert.assertEquals(51, unknownSizeProvider.getKnownSize());
+
+        loadingProvider.load("", 50, 100, tasks::add)
+                .thenAccept(loadingProvider::apply);
+        runTasks();
+        Assert.assertEquals(101, unknownSizeProvider.getKnownSize());
+        Assert.assertEquals(IntStream.range(50, 100).boxed()
+                .collect(Collectors.toList()),
+                loadingProvider.fetch(new Query<>(50, 50, null, null, ""))
+                        .collect(Collectors.toList()));
+
+        loadingProvider.load("", 100, 150, tasks::add)
+                .thenAccept(loadingProvider::apply);
+        runTasks();
+        Assert.assertEquals(120, unknownSizeProvider.getKnownSize());
+        Assert.assertEquals(120, loadingProvider.size(new Query<>("")));
+    }
+
+    private void loadAndApply(String filter, int offset, int end) {
+        asyncProvider.load(filter, offset, end, tasks::add)
+                .thenAccept(asyncProvider::apply);
+        runTasks();
+    }
+
+    private void runTasks() {
+        new ArrayList<>(tasks).forEach(Runnable::run);
+        tasks.clear();
+    }
+
+    private static Stream<String> numbers(String prefix) {
+        return NUMBERS.stream().filter(number -> number.startsWith(prefix));
+    }
+
+    private List<String> fetch(String filter, int offset, int limit) {
+        return asyncProvider
+                .fetch(new Query<>(offset, limit, null, null, filter))
+                .collect(Collectors.toList());
+    }
+}
@@ -17,10 +17,18 @@ package com.vaadin.flow.component.combobox;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.Serializable;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -28,12 +36,24 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import com.vaadin.flow.component.Focusable;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.internal.UIInternals.JavaScriptInvocation;
 import com.vaadin.flow.data.binder.Binder;
+import com.vaadin.flow.data.provider.DataKeyMapper;
 import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.DataProviderListener;
 import com.vaadin.flow.data.provider.ListDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.renderer.TemplateRenderer;
+import com.vaadin.flow.function.SerializablePredicate;
+import com.vaadin.flow.server.Command;
 import com.vaadin.flow.shared.Registration;
 
 import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
 
 public class ComboBoxTest {
 
@@ -52,6 +72,43 @@ public class ComboBoxTest {
 
     }
 
+    private static class CountingDataProvider
+            extends ListDataProvider<String> {
+
+        private int sizeCount;
+        private int fetchCount;
+        private int listenerCount;
+
+        private CountingDataProvider(String... items) {
+            super(Arrays.asList(items));
+        }
+
+        @Override
+        public int size(Query<String, SerializablePredicate<String>> query) {
+            sizeCount++;
+            return super.size(query);
+        }
+
+        @Override
+        public Stream<String> fetch(
+                Query<String, SerializablePredicate<String>> query) {
+            fetchCount++;
+            return super.fetch(query);
+        }
+
+        @Override
+        public Registration addDataProviderListener(
+                DataProviderListener<String> listener) {
+            Registration registration = super.addDataProviderListener(
+                    listener);
+            listenerCount++;
+            return () -> {
+                registration.remove();
+                listenerCount--;
+            };
+        }
+    }
+
     private enum Category {
         CATEGORY_1, CATEGORY_2, CATEGORY_3;
     }
@@ -256,6 +313,345 @@ public class ComboBoxTest {
         comboBox.setPageSize(0);
     }
 
+    @Test
+    public void getClientSideFilterThreshold_defaultsToPageSize() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        Assert.assertEquals(50, comboBox.getClientSideFilterThreshold());
+        comboBox.setPageSize(111);
+        Assert.assertEquals(111, comboBox.getClientSideFilterThreshold());
+    }
+
+    @Test
+    public void setClientSideFilterThreshold_largerDataSetIsFilteredInClient() {
+        ComboBox<String> comboBox = new ComboBox<>(1);
+        comboBox.setItems("foo", "bar", "baz");
+        Assert.assertFalse(comboBox.getElement()
+                .getProperty("_clientSideFilter", false));
+
+        comboBox.setClientSideFilterThreshold(3);
+        Assert.assertEquals(3, comboBox.getClientSideFilterThreshold());
+        Assert.assertTrue(comboBox.getElement()
+                .getProperty("_clientSideFilter", false));
+    }
+
+    @Test
+    public void setMaxClientSideFilterThreshold_probeDoesNotOverflow() {
+        CountingDataProvider dataProvider = new CountingDataProvider("foo",
+                "bar", "baz");
+        ComboBox<String> comboBox = new ComboBox<>(1);
+        comboBox.setDataProvider(dataProvider);
+
+        comboBox.setClientSideFilterThreshold(Integer.MAX_VALUE);
+        Assert.assertTrue(comboBox.getElement()
+                .getProperty("_clientSideFilter", false));
+        Assert.assertEquals(0, dataProvider.sizeCount);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setNegativeClientSideFilterThreshold_throws() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setClientSideFilterThreshold(-1);
+    }
+
+    @Test
+    public void setCompactItemEncoding_isCompactItemEncoding() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        Assert.assertFalse(comboBox.isCompactItemEncoding());
+        comboBox.setCompactItemEncoding(true);
+        Assert.assertTrue(comboBox.isCompactItemEncoding());
+    }
+
+    @Test
+    public void getFilterDebounceTimeout_default500() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        Assert.assertEquals(500, comboBox.getFilterDebounceTimeout());
+        Assert.assertFalse(comboBox.isAdaptiveFilterDebounce());
+    }
+
+    @Test
+    public void setFilterDebounceTimeout_getFilterDebounceTimeout() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setFilterDebounceTimeout(100);
+        comboBox.setAdaptiveFilterDebounce(true);
+        Assert.assertEquals(100, comboBox.getFilterDebounceTimeout());
+        Assert.assertTrue(comboBox.isAdaptiveFilterDebounce());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setNegativeFilterDebounceTimeout_throws() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setFilterDebounceTimeout(-1);
+    }
+
+    @Test
+    public void setDataProviderRepeatedly_listenersDoNotAccumulate() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        UI ui = new UI();
+        ui.add(comboBox);
+        CountingDataProvider dataProvider = new CountingDataProvider("foo",
+                "bar");
+
+        comboBox.setDataProvider(dataProvider);
+        int listenerCount = dataProvider.listenerCount;
+        for (int i = 0; i < 10; i++) {
+            comboBox.setDataProvider(dataProvider);
+        }
+        Assert.assertEquals(listenerCount, dataProvider.listenerCount);
+    }
+
+    @Test
+    public void swapDataProvider_oldDataProviderListenersRemoved() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        UI ui = new UI();
+        ui.add(comboBox);
+        CountingDataProvider oldDataProvider = new CountingDataProvider("foo");
+        comboBox.setDataProvider(oldDataProvider);
+
+        comboBox.setDataProvider(new CountingDataProvider("bar"));
+        Assert.assertEquals(0, oldDataProvider.listenerCount);
+
+        int fetchCount = oldDataProvider.fetchCount;
+        oldDataProvider.refreshAll();
+        Assert.assertEquals(fetchCount, oldDataProvider.fetchCount);
+    }
+
+    @Test
+    public void detachAndAttach_listenersRemovedAndAddedAgain() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        UI ui = new UI();
+        ui.add(comboBox);
+        CountingDataProvider dataProvider = new CountingDataProvider("foo",
+                "bar");
+        comboBox.setDataProvider(dataProvider);
+        int attachedListenerCount = dataProvider.listenerCount;
+
+        ui.remove(comboBox);
+        Assert.assertTrue(
+                dataProvider.listenerCount < attachedListenerCount);
+
+        ui.add(comboBox);
+        Assert.assertEquals(attachedListenerCount,
+                dataProvider.listenerCount);
+    }
+
+    @Test
+    public void detachAndAttach_pageCacheInvalidated() {
+        PageCache pageCache = new PageCache(10);
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setPageCache(pageCache);
+        comboBox.setItems("foo", "bar");
+        UI ui = new UI();
+        ui.add(comboBox);
+
+        ui.remove(comboBox);
+        pageCache.putItems(comboBox.getDataProvider(), null, "", 0, 50,
+                Arrays.asList("foo", "bar"));
+        ui.add(comboBox);
+        Assert.assertNull(
+                pageCache.getItems(comboBox.getDataProvider(), null, "", 0,
+                        50));
+    }
+
+    @Test
+    public void setMaxActiveItems_getMaxActiveItems() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        Assert.assertEquals(0, comboBox.getMaxActiveItems());
+        comboBox.setMaxActiveItems(500);
+        Assert.assertEquals(500, comboBox.getMaxActiveItems());
+        Assert.assertEquals(500, comboBox.getElement()
+                .getProperty("_maxActiveItems", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setNegativeMaxActiveItems_throws() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setMaxActiveItems(-1);
+    }
+
+    @Test
+    public void setPrefetchPages_getPrefetchPages() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        Assert.assertEquals(0, comboBox.getPrefetchPages());
+        comboBox.setPrefetchPages(2);
+        Assert.assertEquals(2, comboBox.getPrefetchPages());
+        Assert.assertEquals(2, comboBox.getElement()
+                .getProperty("_prefetchPages", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setNegativePrefetchPages_throws() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setPrefetchPages(-1);
+    }
+
+    @Test
+    public void preloadFirstPage_configuredAfterAttach_firstPageSentOnAttach() {
+        ComboBox<String> comboBox = createNumberComboBox();
+        comboBox.setPreloadFirstPage(true);
+        UI ui = new UI();
+        ui.add(comboBox);
+        comboBox.setPageSize(20);
+        comboBox.setItemLabelGenerator(item -> "Item " + item);
+
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        List<JavaScriptInvocation> invocations = ui.getInternals()
+                .dumpPendingJavaScriptInvocations();
+        int lastReset = -1;
+        int lastUpdate = -1;
+        for (int i = 0; i < invocations.size(); i++) {
+            String expression = invocations.get(i).getExpression();
+            if (expression.contains("$connector.reset()")) {
+                lastReset = i;
+            } else if (expression.contains("$connector.applyUpdate")) {
+                lastUpdate = i;
+            }
+        }
+        Assert.assertTrue(lastUpdate > lastReset);
+        List<Serializable> parameters = invocations.get(lastUpdate)
+                .getParameters();
+        JsonArray ranges = (JsonArray) parameters.get(2);
+        Assert.assertEquals(1, ranges.length());
+        Assert.assertEquals(0, (int) ranges.getArray(0).getNumber(0));
+    }
+
+    @Test
+    public void preloadFirstPage_fetchExecutor_firstPageSentWhenFetched() {
+        List<Runnable> tasks = new ArrayList<>();
+        ComboBox<String> comboBox = createNumberComboBox();
+        comboBox.setFetchExecutor(tasks::add);
+        comboBox.setPreloadFirstPage(true);
+        UI ui = createSynchronousAccessUI();
+        ui.add(comboBox);
+
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertFalse(
+                comboBox.getElement().getProperty("loading", false));
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+
+        tasks.remove(0).run();
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        JsonArray ranges = getLastRanges(ui);
+        Assert.assertEquals(1, ranges.length());
+        Assert.assertEquals(10, (int) ranges.getArray(0).getObject(1)
+                .getNumber("length"));
+    }
+
+    @Test
+    public void setFirstChunkSize_getFirstChunkSize() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        Assert.assertEquals(0, comboBox.getFirstChunkSize());
+        comboBox.setFirstChunkSize(10);
+        Assert.assertEquals(10, comboBox.getFirstChunkSize());
+    }
+
+    @Test
+    public void firstChunkSize_firstItemsAppliedBeforeTheRest() {
+        List<Runnable> tasks = new ArrayList<>();
+        ComboBox<String> comboBox = new ComboBox<>(10);
+        comboBox.setFetchExecutor(tasks::add);
+        comboBox.setFirstChunkSize(3);
+        comboBox.setItems(IntStream.range(0, 100).mapToObj(String::valueOf)
+                .collect(Collectors.toList()));
+        UI ui = createSynchronousAccessUI();
+        ui.add(comboBox);
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+
+        requestRange(comboBox, 0, 10, "");
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        JsonArray ranges = getLastRanges(ui);
+        Assert.assertEquals(1, ranges.length());
+        Assert.assertEquals(0, (int) ranges.getArray(0).getNumber(0));
+        Assert.assertEquals(3, (int) ranges.getArray(0).getObject(1)
+                .getNumber("length"));
+
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        ranges = getLastRanges(ui);
+        Assert.assertEquals(1, ranges.length());
+        Assert.assertEquals(3, (int) ranges.getArray(0).getNumber(0));
+        Assert.assertEquals(7, (int) ranges.getArray(0).getObject(1)
+                .getNumber("length"));
+        Assert.assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void fetchExecutor_cachedPage_notLoadedInBackground() {
+        List<Runnable> tasks = new ArrayList<>();
+        ComboBox<String> comboBox = new ComboBox<>(10);
+        comboBox.setFetchExecutor(tasks::add);
+        comboBox.setPageCache(new PageCache(10));
+        comboBox.setItems(IntStream.range(0, 100).mapToObj(String::valueOf)
+                .collect(Collectors.toList()));
+        UI ui = createSynchronousAccessUI();
+        ui.add(comboBox);
+
+        requestRange(comboBox, 0, 10, "1");
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        flushAndConfirm(ui, comboBox);
+        requestRange(comboBox, 0, 10, "2");
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        flushAndConfirm(ui, comboBox);
+
+        requestRange(comboBox, 0, 10, "1");
+        Assert.assertTrue(tasks.isEmpty());
+        flushAndConfirm(ui, comboBox);
+    }
+
+    @Test
+    public void fetchExecutor_prefetch_loadingNotShown() {
+        List<Runnable> tasks = new ArrayList<>();
+        ComboBox<String> comboBox = new ComboBox<>(10);
+        comboBox.setFetchExecutor(tasks::add);
+        comboBox.setPrefetchPages(1);
+        comboBox.setItems(IntStream.range(0, 100).mapToObj(String::valueOf)
+                .collect(Collectors.toList()));
+        UI ui = createSynchronousAccessUI();
+        ui.add(comboBox);
+
+        requestRange(comboBox, 0, 10, "");
+        Assert.assertTrue(
+                comboBox.getElement().getProperty("loading", false));
+        tasks.remove(0).run();
+        Assert.assertFalse(
+                comboBox.getElement().getProperty("loading", false));
+        flushAndConfirm(ui, comboBox);
+
+        invoke(comboBox, "prefetchRange",
+                new Class<?>[] { int.class, int.class, String.class }, 10, 10,
+                "");
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertFalse(
+                comboBox.getElement().getProperty("loading", false));
+        tasks.remove(0).run();
+        flushAndConfirm(ui, comboBox);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setNegativeFirstChunkSize_throws() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setFirstChunkSize(-1);
+    }
+
+    @Test
+    public void setItemIdProvider_valueKeyIsItemId() {
+        ComboBox<Category> comboBox = new ComboBox<>();
+        comboBox.setItems(Category.values());
+        comboBox.setItemIdProvider(Category::name);
+        comboBox.setValue(Category.CATEGORY_2);
+        Assert.assertEquals("CATEGORY_2",
+                comboBox.getElement().getProperty("value"));
+
+        comboBox.getElement().setProperty("value", "CATEGORY_2");
+        Assert.assertEquals(Category.CATEGORY_2, comboBox.getValue());
+    }
+
     @Test
     public void setValueNull_selectedItemNull() {
         ComboBox<String> comboBox = new ComboBox<>("1", "2");
@@ -267,6 +663,51 @@ public class ComboBoxTest {
                 comboBox.getSelectedItemJsonObject());
     }
 
+    @Test
+    public void setValueRepeatedly_selectedItemGeneratedOnceBeforeResponse() {
+        AtomicInteger labelCount = new AtomicInteger();
+        ComboBox<String> comboBox = new ComboBox<>("1", "2", "3");
+        comboBox.setItemLabelGenerator(item -> {
+            labelCount.incrementAndGet();
+            return item;
+        });
+        UI ui = new UI();
+        ui.add(comboBox);
+
+        comboBox.setValue("1");
+        comboBox.setValue("2");
+        comboBox.setValue("3");
+        Assert.assertEquals(0, labelCount.get());
+
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        Assert.assertEquals("3",
+                comboBox.getSelectedItemJsonObject().getString("label"));
+        Assert.assertEquals(1, labelCount.get());
+    }
+
+    @Test
+    public void configureRepeatedly_connectorResetOnceBeforeResponse() {
+        ComboBox<String> comboBox = new ComboBox<>("1", "2", "3");
+        UI ui = new UI();
+        ui.add(comboBox);
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+
+        comboBox.setItems("4", "5", "6");
+        comboBox.setPageSize(20);
+        comboBox.setPageSize(30);
+        comboBox.setItemLabelGenerator(item -> "Item " + item);
+        comboBox.setItems("7", "8", "9");
+
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        long resets = ui.getInternals().dumpPendingJavaScriptInvocations()
+                .stream()
+                .filter(invocation -> invocation.getExpression()
+                        .contains("$0.$connector.reset()"))
+                .count();
+        Assert.assertEquals(1, resets);
+    }
+
     @Test
     public void setValueWithoutItems_throw() {
         expectIllegalStateException(
@@ -281,6 +722,322 @@ public class ComboBoxTest {
         combo.clear();
     }
 
+    @Test
+    public void setDataProviderWithCallbacks_sizeIsNotQueried() {
+        AtomicInteger sizeCount = new AtomicInteger();
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setDataProvider((filter, offset, limit) -> Stream.of("foo"),
+                filter -> sizeCount.incrementAndGet());
+        comboBox.getDataProvider().refreshAll();
+
+        Assert.assertEquals(0, sizeCount.get());
+    }
+
+    @Test
+    public void setItems_defaultSizeStrategy_itemsAreNotCounted() {
+        CountingDataProvider dataProvider = new CountingDataProvider("foo",
+                "bar");
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setDataProvider(dataProvider);
+
+        Assert.assertEquals(ComboBox.SizeStrategy.PROBE,
+                comboBox.getSizeStrategy());
+        Assert.assertEquals(0, dataProvider.sizeCount);
+        Assert.assertEquals(1, dataProvider.fetchCount);
+    }
+
+    @Test
+    public void cachedCountSizeStrategy_sizeIsCountedOncePerRefreshAll() {
+        CountingDataProvider dataProvider = new CountingDataProvider("foo",
+                "bar");
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setSizeStrategy(ComboBox.SizeStrategy.CACHED_COUNT);
+        comboBox.setDataProvider(dataProvider);
+        Assert.assertEquals(1, dataProvider.sizeCount);
+
+        dataProvider.refreshItem("foo");
+        Assert.assertEquals(1, dataProvider.sizeCount);
+
+        dataProvider.refreshAll();
+        Assert.assertEquals(2, dataProvider.sizeCount);
+    }
+
+    @Test
+    public void defaultActiveItems_selectedItemIsNotRekeyed() {
+        ComboBox<String> comboBox = createNumberComboBox();
+        UI ui = new UI();
+        ui.add(comboBox);
+        requestRange(comboBox, 0, 10, "");
+        flushAndConfirm(ui, comboBox);
+        comboBox.setValue("0");
+        String key = comboBox.getElement().getProperty("value");
+
+        requestRange(comboBox, 0, 10, "5");
+        flushAndConfirm(ui, comboBox);
+        Assert.assertEquals(key, comboBox.getElement().getProperty("value"));
+    }
+
+    @Test
+    public void maxActiveItems_keysOutsideWindowDropped_selectedItemResolvable() {
+        ComboBox<String> comboBox = createNumberComboBox();
+        comboBox.setMaxActiveItems(20);
+        UI ui = new UI();
+        ui.add(comboBox);
+        requestRange(comboBox, 0, 10, "");
+        flushAndConfirm(ui, comboBox);
+        comboBox.setValue("0");
+
+        requestRange(comboBox, 40, 10, "");
+        flushAndConfirm(ui, comboBox);
+        DataKeyMapper<String> keyMapper = getKeyMapper(comboBox);
+        Assert.assertFalse(keyMapper.has("5"));
+        Assert.assertTrue(keyMapper.has("45"));
+        Assert.assertEquals("0", keyMapper
+                .get(comboBox.getElement().getProperty("value")));
+    }
+
+    @Test
+    public void compactItemEncoding_itemsSentAsColumns() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setRenderer(TemplateRenderer.of("<b>[[item.label]]</b>"));
+        comboBox.setCompactItemEncoding(true);
+
+        JsonObject first = Json.createObject();
+        first.put("key", "1");
+        first.put("label", "foo");
+        first.put("extra", 42);
+        JsonObject second = Json.createObject();
+        second.put("key", "2");
+        second.put("label", "bar");
+        JsonArray items = Json.createArray();
+        items.set(0, first);
+        items.set(1, second);
+
+        JsonObject encoded = (JsonObject) encodeItems(comboBox, items);
+        Assert.assertEquals(2, (int) encoded.getNumber("length"));
+        JsonObject columns = encoded.getObject("columns");
+        Assert.assertEquals(3, columns.keys().length);
+        Assert.assertEquals("1", columns.getArray("key").getString(0));
+        Assert.assertEquals("2", columns.getArray("key").getString(1));
+        Assert.assertEquals("bar", columns.getArray("label").getString(1));
+        Assert.assertEquals(42,
+                (int) columns.getArray("extra").getNumber(0));
+        Assert.assertEquals(JsonType.NULL,
+                columns.getArray("extra").get(1).getType());
+
+        comboBox.setCompactItemEncoding(false);
+        Assert.assertSame(items, encodeItems(comboBox, items));
+    }
+
+    @Test
+    public void noRenderer_labelOnlyItemsSentAsColumns() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        Assert.assertFalse(comboBox.isCompactItemEncoding());
+
+        JsonObject item = Json.createObject();
+        item.put("key", "1");
+        item.put("label", "foo");
+        JsonArray items = Json.createArray();
+        items.set(0, item);
+
+        JsonObject encoded = (JsonObject) encodeItems(comboBox, items);
+        Assert.assertEquals(1, (int) encoded.getNumber("length"));
+        JsonObject columns = encoded.getObject("columns");
+        Assert.assertEquals(2, columns.keys().length);
+        Assert.assertEquals("1", columns.getArray("key").getString(0));
+        Assert.assertEquals("foo", columns.getArray("label").getString(0));
+    }
+
+    @Test
+    public void sameFilterRequestedAgain_notFilteredAgain() {
+        AtomicInteger conversions = new AtomicInteger();
+        ComboBox<String> comboBox = new ComboBox<>(10);
+        comboBox.setDataProvider(
+                DataProvider.ofCollection(IntStream.range(0, 100)
+                        .mapToObj(String::valueOf)
+                        .collect(Collectors.toList())),
+                filter -> {
+                    conversions.incrementAndGet();
+                    return item -> item.contains(filter);
+                });
+        UI ui = new UI();
+        ui.add(comboBox);
+        requestRange(comboBox, 0, 10, "1");
+        flushAndConfirm(ui, comboBox);
+        int conversionCount = conversions.get();
+
+        requestRange(comboBox, 0, 10, "1");
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        Assert.assertEquals(conversionCount, conversions.get());
+        Assert.assertFalse(ui.getInternals().dumpPendingJavaScriptInvocations()
+                .stream().anyMatch(invocation -> invocation.getExpression()
+                        .contains("$connector.reset()")));
+    }
+
+    @Test
+    public void rangesOnBothSides_sentWithSingleUpdate() {
+        ComboBox<String> comboBox = createNumberComboBox();
+        UI ui = new UI();
+        ui.add(comboBox);
+        requestRange(comboBox, 10, 10, "");
+        flushAndConfirm(ui, comboBox);
+
+        requestRange(comboBox, 0, 30, "");
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        List<JavaScriptInvocation> updates = getApplyUpdateInvocations(ui);
+        Assert.assertEquals(1, updates.size());
+        JsonArray ranges = (JsonArray) updates.get(0).getParameters().get(2);
+        Assert.assertEquals(2, ranges.length());
+        Assert.assertEquals(0, (int) ranges.getArray(0).getNumber(0));
+        Assert.assertEquals(10, (int) ranges.getArray(0).getObject(1)
+                .getNumber("length"));
+        Assert.assertEquals(20, (int) ranges.getArray(1).getNumber(0));
+        Assert.assertEquals(10, (int) ranges.getArray(1).getObject(1)
+                .getNumber("length"));
+    }
+
+    @Test
+    public void maxActiveItems_clientSideFilter_allItemsSent() {
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setMaxActiveItems(100);
+        comboBox.setClientSideFilterThreshold(500);
+        comboBox.setItems(IntStream.range(0, 300).mapToObj(String::valueOf)
+                .collect(Collectors.toList()));
+        UI ui = new UI();
+        ui.add(comboBox);
+        Assert.assertTrue(comboBox.getElement()
+                .getProperty("_clientSideFilter", false));
+
+        requestRange(comboBox, 0, 500, "");
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        JsonArray ranges = getLastRanges(ui);
+        Assert.assertEquals(1, ranges.length());
+        Assert.assertEquals(0, (int) ranges.getArray(0).getNumber(0));
+        Assert.assertEquals(300, (int) ranges.getArray(0).getObject(1)
+                .getNumber("length"));
+    }
+
+    @Test
+    public void unknownSize_totalMultipleOfPageSize_emptyPageShrinksSize() {
+        ComboBox<Integer> comboBox = new ComboBox<>(10);
+        comboBox.setDataProvider((filter, offset, limit) -> {
+            List<Integer> items = IntStream
+                    .range(offset, Math.min(offset + limit, 20)).boxed()
+                    .collect(Collectors.toList());
+            return ComboBox.FetchResult.withMoreItems(items,
+                    items.size() < limit ? 0 : 1);
+        });
+        UI ui = new UI();
+        ui.add(comboBox);
+
+        requestRange(comboBox, 0, 20, "");
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        Assert.assertEquals(21, getLastClientSize(ui));
+
+        // The client asks for the page after the known items, which is empty
+        requestRange(comboBox, 0, 30, "");
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        Assert.assertEquals(20, getLastClientSize(ui));
+    }
+
+    @Test
+    public void sizeHint_dataProviderIsNotQueried() {
+        CountingDataProvider dataProvider = new CountingDataProvider("foo",
+                "bar");
+        ComboBox<String> comboBox = new ComboBox<>();
+        comboBox.setSizeHint(2);
+        comboBox.setDataProvider(dataProvider);
+
+        Assert.assertEquals(0, dataProvider.sizeCount);
+        Assert.assertEquals(0, dataProvider.fetchCount);
+    }
+
+    private static ComboBox<String> createNumberComboBox() {
+        ComboBox<String> comboBox = new ComboBox<>(10);
+        comboBox.setItems(IntStream.range(0, 100).mapToObj(String::valueOf)
+                .collect(Collectors.toList()));
+        return comboBox;
+    }
+
+    private static void requestRange(ComboBox<?> comboBox, int start,
+            int length, String filter) {
+        invoke(comboBox, "setRequestedRange",
+                new Class<?>[] { int.class, int.class, String.class }, start,
+                length, filter);
+    }
+
+    /**
+     * Runs the pending executions and confirms the last update sent to the
+     * connector, as the client would.
+     */
+    private static void flushAndConfirm(UI ui, ComboBox<String> comboBox) {
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        List<JavaScriptInvocation> updates = getApplyUpdateInvocations(ui);
+        Assert.assertFalse(updates.isEmpty());
+        List<Serializable> parameters = updates.get(updates.size() - 1)
+                .getParameters();
+        invoke(comboBox, "confirmUpdate", new Class<?>[] { int.class },
+                parameters.get(parameters.size() - 1));
+    }
+
+    private static List<JavaScriptInvocation> getApplyUpdateInvocations(
+            UI ui) {
+        return ui.getInternals().dumpPendingJavaScriptInvocations().stream()
+                .filter(invocation -> invocation.getExpression()
+                        .contains("$connector.applyUpdate"))
+                .collect(Collectors.toList());
+    }
+
+    private static JsonValue encodeItems(ComboBox<String> comboBox,
+            JsonArray items) {
+        return (JsonValue) invoke(comboBox, "encodeItems",
+                new Class<?>[] { JsonArray.class }, items);
+    }
+
+    private static UI createSynchronousAccessUI() {
+        return new UI() {
+            @Override
+            public Future<Void> access(Command command) {
+                // No session to lock in the test
+                command.execute();
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+    }
+
+    private static int getLastClientSize(UI ui) {
+        List<JavaScriptInvocation> updates = getApplyUpdateInvocations(ui);
+        Assert.assertFalse(updates.isEmpty());
+        return ((Number) updates.get(updates.size() - 1).getParameters()
+                .get(1)).intValue();
+    }
+
+    private static JsonArray getLastRanges(UI ui) {
+        List<JavaScriptInvocation> updates = getApplyUpdateInvocations(ui);
+        Assert.assertFalse(updates.isEmpty());
+        return (JsonArray) updates.get(updates.size() - 1).getParameters()
+                .get(2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DataKeyMapper<String> getKeyMapper(
+            ComboBox<String> comboBox) {
+        return (DataKeyMapper<String>) invoke(comboBox, "getKeyMapper",
+                new Class<?>[0]);
+    }
+
+    private static Object invoke(ComboBox<?> comboBox, String methodName,
+            Class<?>[] parameterTypes, Object... args) {
+        try {
+            Method method = ComboBox.class.getDeclaredMethod(methodName,
+                    parameterTypes);
+            method.setAccessible(true);
+            return method.invoke(comboBox, args);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     private void assertItem(TestComboBox comboBox, int index, String caption) {
         String value1 = comboBox.items.get(index);
         Assert.assertEquals(caption, value1);
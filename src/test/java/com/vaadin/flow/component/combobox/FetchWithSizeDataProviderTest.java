@@ -0,0 +1,133 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vaadin.flow.component.combobox.ComboBox.FetchResult;
+import com.vaadin.flow.data.provider.Query;
+
+public class FetchWithSizeDataProviderTest {
+
+    private final List<Integer> offsets = new ArrayList<>();
+    private final FetchWithSizeDataProvider<Integer> unknownSizeProvider = new FetchWithSizeDataProvider<>(
+            (filter, offset, limit) -> {
+                offsets.add(offset);
+                List<Integer> items = IntStream
+                        .range(offset, Math.min(offset + limit, 5)).boxed()
+                        .collect(Collectors.toList());
+                return FetchResult.withMoreItems(items,
+                        items.size() < limit ? 0 : 1);
+            }, 2);
+
+    @Test
+    public void totalSize_sizeAndFetch_callbackIsCalledOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        FetchWithSizeDataProvider<String> dataProvider = new FetchWithSizeDataProvider<>(
+                (filter, offset, limit) -> {
+                    calls.incrementAndGet();
+                    return FetchResult.withTotalSize(
+                            Arrays.asList("foo", "bar"), 2);
+                }, 50);
+
+        Assert.assertEquals(2, dataProvider.size(new Query<>("")));
+        Assert.assertEquals(Arrays.asList("foo", "bar"), fetch(dataProvider,
+                0, 50));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(2, dataProvider.getKnownSize());
+    }
+
+    @Test
+    public void moreItems_sizeIsUnknown() {
+        Assert.assertEquals(FetchWithSizeDataProvider.UNKNOWN_SIZE,
+                unknownSizeProvider.size(new Query<>("")));
+        Assert.assertEquals(3, unknownSizeProvider.getKnownSize());
+    }
+
+    @Test
+    public void fetchBeyondKnownSize_sizeGrowsUntilShortPage() {
+        unknownSizeProvider.size(new Query<>(""));
+        Assert.assertEquals(3, unknownSizeProvider.getKnownSize());
+
+        Assert.assertEquals(Arrays.asList(2, 3),
+                fetch(unknownSizeProvider, 2, 2));
+        Assert.assertEquals(5, unknownSizeProvider.getKnownSize());
+        Assert.assertEquals(Arrays.asList(0, 2), offsets);
+
+        fetch(unknownSizeProvider, 4, 2);
+        Assert.assertEquals(5, unknownSizeProvider.getKnownSize());
+        Assert.assertEquals(5, unknownSizeProvider.size(new Query<>("")));
+    }
+
+    @Test
+    public void earlierRangeFetchedAgain_sizeDoesNotShrink() {
+        unknownSizeProvider.size(new Query<>(""));
+        fetch(unknownSizeProvider, 2, 2);
+        fetch(unknownSizeProvider, 0, 2);
+        Assert.assertEquals(5, unknownSizeProvider.getKnownSize());
+    }
+
+    @Test
+    public void limitHint_itemsFetchedWithSizeForNewFilter() {
+        unknownSizeProvider.setLimitHint(4);
+        unknownSizeProvider.size(new Query<>(""));
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3),
+                fetch(unknownSizeProvider, 0, 4));
+        Assert.assertEquals(Arrays.asList(0), offsets);
+    }
+
+    @Test
+    public void refreshItem_fetchedItemReplaced() {
+        List<String> items = Arrays.asList("a", "bb");
+        FetchWithSizeDataProvider<String> dataProvider = new FetchWithSizeDataProvider<String>(
+                (filter, offset, limit) -> FetchResult
+                        .withTotalSize(new ArrayList<>(items), 2),
+                50) {
+            @Override
+            public Object getId(String item) {
+                return item.length();
+            }
+        };
+        dataProvider.size(new Query<>(""));
+
+        dataProvider.refreshItem("cc");
+        Assert.assertEquals(Arrays.asList("a", "cc"),
+                fetch(dataProvider, 0, 2));
+    }
+
+    @Test
+    public void itemsFetchedFromCache_sizeGrows() {
+        unknownSizeProvider.size(new Query<>(""));
+        unknownSizeProvider.onItemsFetched("", 2, 2, 2);
+        Assert.assertEquals(5, unknownSizeProvider.getKnownSize());
+        unknownSizeProvider.onItemsFetched("", 4, 2, 1);
+        Assert.assertEquals(5, unknownSizeProvider.size(new Query<>("")));
+    }
+
+    private static <T> List<T> fetch(FetchWithSizeDataProvider<T> dataProvider,
+            int offset, int limit) {
+        return dataProvider.fetch(new Query<>(offset, limit, null, null, ""))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vaadin.flow.data.provider.KeyMapper;
+
+public class ItemIdKeyMapperTest {
+
+    private final KeyMapper<String> generatedKeys = new KeyMapper<>();
+    private final ItemIdKeyMapper<String> keyMapper = new ItemIdKeyMapper<>(
+            generatedKeys);
+
+    @Test
+    public void noIdProvider_generatedKeysUsed() {
+        String key = keyMapper.key("foo");
+        Assert.assertEquals(generatedKeys.key("foo"), key);
+        Assert.assertEquals("foo", keyMapper.get(key));
+        Assert.assertFalse(keyMapper.isIdBased());
+    }
+
+    @Test
+    public void idProvider_keyIsId() {
+        keyMapper.setIdProvider(item -> item.toUpperCase());
+        Assert.assertEquals("FOO", keyMapper.key("foo"));
+        Assert.assertEquals("foo", keyMapper.get("FOO"));
+        Assert.assertTrue(keyMapper.has("foo"));
+        Assert.assertFalse(generatedKeys.has("foo"));
+    }
+
+    @Test
+    public void idProvider_sameKeyAfterRemoval() {
+        keyMapper.setIdProvider(item -> item.toUpperCase());
+        keyMapper.key("foo");
+        keyMapper.removeAll();
+        Assert.assertFalse(keyMapper.has("foo"));
+        Assert.assertNull(keyMapper.get("FOO"));
+
+        Assert.assertEquals("FOO", keyMapper.key("foo"));
+    }
+
+    @Test
+    public void idProvider_refresh_newInstanceMapped() {
+        keyMapper.setIdProvider(item -> item.length());
+        keyMapper.key("foo");
+        keyMapper.refresh("bar");
+        Assert.assertEquals("bar", keyMapper.get("3"));
+
+        keyMapper.remove("baz");
+        Assert.assertNull(keyMapper.get("3"));
+    }
+}
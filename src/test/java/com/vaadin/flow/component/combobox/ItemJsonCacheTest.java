@@ -0,0 +1,88 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vaadin.flow.data.provider.DataGenerator;
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.ListDataProvider;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+public class ItemJsonCacheTest {
+
+    private final AtomicInteger generated = new AtomicInteger();
+    private final DataGenerator<String> generator = (item, json) -> {
+        generated.incrementAndGet();
+        json.put("label", item.toUpperCase());
+    };
+    private final ListDataProvider<String> dataProvider = DataProvider
+            .ofItems("foo", "bar");
+
+    @Test
+    public void sameDataProviderAndItem_generatedOnce() {
+        ItemJsonCache cache = new ItemJsonCache(10);
+
+        Assert.assertEquals("FOO", generate(cache, dataProvider, "foo"));
+        Assert.assertEquals("FOO", generate(cache, dataProvider, "foo"));
+        Assert.assertEquals(1, generated.get());
+    }
+
+    @Test
+    public void differentDataProviders_generatedSeparately() {
+        ItemJsonCache cache = new ItemJsonCache(10);
+
+        generate(cache, dataProvider, "foo");
+        generate(cache, DataProvider.ofItems("foo"), "foo");
+        Assert.assertEquals(2, generated.get());
+    }
+
+    @Test
+    public void invalidate_generatedAgain() {
+        ItemJsonCache cache = new ItemJsonCache(10);
+
+        generate(cache, dataProvider, "foo");
+        generate(cache, dataProvider, "bar");
+        cache.invalidate(dataProvider, "foo");
+        Assert.assertEquals(1, cache.getEntryCount());
+
+        cache.invalidate(dataProvider);
+        Assert.assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void maxEntriesExceeded_leastRecentlyUsedIsEvicted() {
+        ItemJsonCache cache = new ItemJsonCache(1);
+
+        generate(cache, dataProvider, "foo");
+        generate(cache, dataProvider, "bar");
+        generate(cache, dataProvider, "foo");
+        Assert.assertEquals(3, generated.get());
+        Assert.assertEquals(1, cache.getEntryCount());
+    }
+
+    private String generate(ItemJsonCache cache,
+            DataProvider<String, ?> dataProvider, String item) {
+        JsonObject json = Json.createObject();
+        cache.generateData(dataProvider, item, json, generator);
+        return json.getString("label");
+    }
+}
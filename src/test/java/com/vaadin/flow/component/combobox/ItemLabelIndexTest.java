@@ -0,0 +1,158 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.ListDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializablePredicate;
+
+public class ItemLabelIndexTest {
+
+    private final List<String> items = new ArrayList<>(
+            Arrays.asList("Finland", "France", "Germany", "Fiji"));
+    private final ListDataProvider<String> dataProvider = DataProvider
+            .ofCollection(items);
+    private final ItemLabelIndex<String> index = new ItemLabelIndex<>(
+            dataProvider, String::valueOf, () -> Locale.ENGLISH);
+
+    @Test
+    public void longFilter_matchesSubstringIgnoringCase() {
+        assertMatches("LAN", "Finland");
+        assertMatches("an", "Finland", "France", "Germany");
+        assertMatches("fi", "Finland", "Fiji");
+    }
+
+    @Test
+    public void emptyFilter_matchesAll() {
+        assertMatches("", "Finland", "France", "Germany", "Fiji");
+    }
+
+    @Test
+    public void allGramsButNoSubstring_noMatch() {
+        // Contains both "abc" and "bcd" but not "abcd"
+        items.add("abcx bcd");
+        index.refreshAll();
+
+        assertMatches("abcd");
+        assertMatches("bcd", "abcx bcd");
+    }
+
+    @Test
+    public void refreshAll_addedAndRemovedItemsAreIndexed() {
+        items.remove("Finland");
+        items.add("Iceland");
+        index.refreshAll();
+
+        assertMatches("land", "Iceland");
+    }
+
+    @Test
+    public void refreshItem_changedLabelIsIndexed() {
+        List<String> labels = new ArrayList<>(items);
+        ItemLabelIndex<String> customIndex = new ItemLabelIndex<>(
+                dataProvider, item -> labels.get(items.indexOf(item)),
+                () -> Locale.ENGLISH);
+
+        labels.set(items.indexOf("Fiji"), "Suomi");
+        customIndex.refreshItem("Fiji");
+
+        Assert.assertEquals(Arrays.asList("Fiji"), dataProvider.getItems()
+                .stream().filter(customIndex.createFilter("suo"))
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void findItems_matchesInDataProviderOrder() {
+        Assert.assertEquals(Arrays.asList("Finland", "France", "Germany"),
+                index.findItems("AN"));
+        Assert.assertEquals(Arrays.asList("Finland"), index.findItems("nla"));
+        Assert.assertEquals(items, index.findItems(""));
+    }
+
+    @Test
+    public void findItems_shortFilter_matchesFromIndex() {
+        Assert.assertEquals(Arrays.asList("Finland", "France", "Fiji"),
+                index.findItems("f"));
+        Assert.assertEquals(Arrays.asList("Finland", "France", "Germany"),
+                index.findItems("n"));
+        Assert.assertEquals(Collections.emptyList(), index.findItems("q"));
+        Assert.assertEquals(3, index.countItems("F"));
+        Assert.assertEquals(items.size(), index.countItems(""));
+    }
+
+    @Test
+    public void findItems_sameFilter_matchesAreReusedUntilRefresh() {
+        List<String> matches = index.findItems("an");
+        Assert.assertSame(matches, index.findItems("AN"));
+
+        items.add("Iran");
+        index.refreshAll();
+
+        Assert.assertEquals(Arrays.asList("Finland", "France", "Germany",
+                "Iran"), index.findItems("an"));
+    }
+
+    @Test
+    public void indexedDataProvider_labelFilterAnsweredFromIndex() {
+        AtomicInteger fetchCount = new AtomicInteger();
+        ListDataProvider<String> countingDataProvider = new ListDataProvider<String>(
+                items) {
+            @Override
+            public Stream<String> fetch(
+                    Query<String, SerializablePredicate<String>> query) {
+                fetchCount.incrementAndGet();
+                return super.fetch(query);
+            }
+        };
+        ItemLabelIndex<String> countingIndex = new ItemLabelIndex<>(
+                countingDataProvider, String::valueOf, () -> Locale.ENGLISH);
+        IndexedDataProvider<String, SerializablePredicate<String>> indexedDataProvider = new IndexedDataProvider<>(
+                countingDataProvider, countingIndex);
+
+        Query<String, SerializablePredicate<String>> query = new Query<>(1,
+                50, null, null, countingIndex.createFilter("an"));
+        Assert.assertEquals(3, indexedDataProvider.size(query));
+        Assert.assertEquals(Arrays.asList("France", "Germany"),
+                indexedDataProvider.fetch(query)
+                        .collect(Collectors.toList()));
+        Assert.assertEquals(0, fetchCount.get());
+
+        countingDataProvider.setFilter(item -> !item.startsWith("G"));
+        Assert.assertEquals(Arrays.asList("France"), indexedDataProvider
+                .fetch(query).collect(Collectors.toList()));
+        Assert.assertEquals(1, fetchCount.get());
+    }
+
+    private void assertMatches(String filter, String... expected) {
+        Assert.assertEquals(Arrays.asList(expected),
+                dataProvider.getItems().stream()
+                        .filter(index.createFilter(filter))
+                        .collect(Collectors.toList()));
+    }
+}
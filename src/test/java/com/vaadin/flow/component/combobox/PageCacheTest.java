@@ -0,0 +1,175 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableFunction;
+
+public class PageCacheTest {
+
+    private final AtomicInteger fetchCount = new AtomicInteger();
+    private final AtomicReference<String> filterText = new AtomicReference<>(
+            "");
+    private final DataProvider<String, String> dataProvider = DataProvider
+            .fromFilteringCallbacks(query -> {
+                fetchCount.incrementAndGet();
+                return Arrays.asList("foo", "bar").stream()
+                        .filter(item -> item
+                                .contains(query.getFilter().orElse("")));
+            }, query -> 2);
+
+    private final SerializableFunction<String, String> identity = SerializableFunction
+            .identity();
+
+    private PageCachingDataProvider<String, String> createCachingProvider(
+            PageCache cache) {
+        return createCachingProvider(cache, identity);
+    }
+
+    private PageCachingDataProvider<String, String> createCachingProvider(
+            PageCache cache, SerializableFunction<String, String> converter) {
+        PageCachingDataProvider<String, String> cachingProvider = new PageCachingDataProvider<>(
+                dataProvider, cache, converter, filterText::get);
+        dataProvider.addDataProviderListener(cachingProvider::onDataChange);
+        return cachingProvider;
+    }
+
+    @Test
+    public void sameFilterAndRange_fetchedOnce() {
+        PageCachingDataProvider<String, String> cachingProvider = createCachingProvider(
+                new PageCache(10));
+
+        Assert.assertEquals(Arrays.asList("foo"), fetch(cachingProvider, "f"));
+        Assert.assertEquals(Arrays.asList("bar"), fetch(cachingProvider, "b"));
+        Assert.assertEquals(Arrays.asList("foo"), fetch(cachingProvider, "f"));
+        Assert.assertEquals(2, fetchCount.get());
+    }
+
+    @Test
+    public void maxEntriesExceeded_leastRecentlyUsedIsEvicted() {
+        PageCache cache = new PageCache(1);
+        PageCachingDataProvider<String, String> cachingProvider = createCachingProvider(
+                cache);
+
+        fetch(cachingProvider, "f");
+        fetch(cachingProvider, "b");
+        fetch(cachingProvider, "f");
+        Assert.assertEquals(3, fetchCount.get());
+        Assert.assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void refreshAll_cacheIsInvalidated() {
+        PageCachingDataProvider<String, String> cachingProvider = createCachingProvider(
+                new PageCache(10));
+
+        fetch(cachingProvider, "f");
+        dataProvider.refreshAll();
+        fetch(cachingProvider, "f");
+        Assert.assertEquals(2, fetchCount.get());
+    }
+
+    @Test
+    public void refreshItem_onlyRangesWithItemAreInvalidated() {
+        PageCachingDataProvider<String, String> cachingProvider = createCachingProvider(
+                new PageCache(10));
+
+        fetch(cachingProvider, "f");
+        fetch(cachingProvider, "b");
+        dataProvider.refreshItem("foo");
+        fetch(cachingProvider, "f");
+        fetch(cachingProvider, "b");
+        Assert.assertEquals(3, fetchCount.get());
+    }
+
+    @Test
+    public void sharedCache_differentFilterConverters_notShared() {
+        PageCache cache = new PageCache(10);
+        PageCachingDataProvider<String, String> cachingProvider = createCachingProvider(
+                cache);
+        PageCachingDataProvider<String, String> upperCaseProvider = createCachingProvider(
+                cache, filter -> filter.toUpperCase());
+
+        Assert.assertEquals(Arrays.asList("foo"), fetch(cachingProvider, "f"));
+        Assert.assertEquals(Collections.emptyList(),
+                fetch(upperCaseProvider, "f", "F"));
+        Assert.assertEquals(2, fetchCount.get());
+
+        fetch(createCachingProvider(cache), "f");
+        Assert.assertEquals(2, fetchCount.get());
+    }
+
+    @Test
+    public void timeToLiveElapsed_fetchedAgain() throws InterruptedException {
+        PageCachingDataProvider<String, String> cachingProvider = createCachingProvider(
+                new PageCache(10, Duration.ofMillis(1)));
+
+        fetch(cachingProvider, "f");
+        Thread.sleep(10);
+        fetch(cachingProvider, "f");
+        Assert.assertEquals(2, fetchCount.get());
+    }
+
+    @Test
+    public void timeToLiveNotElapsed_fetchedOnce() {
+        PageCachingDataProvider<String, String> cachingProvider = createCachingProvider(
+                new PageCache(10, Duration.ofHours(1)));
+
+        fetch(cachingProvider, "f");
+        fetch(cachingProvider, "f");
+        Assert.assertEquals(1, fetchCount.get());
+    }
+
+    @Test
+    public void isCached_onlyFetchedRangeWithSize() {
+        PageCachingDataProvider<String, String> cachingProvider = createCachingProvider(
+                new PageCache(10));
+
+        fetch(cachingProvider, "f");
+        Assert.assertFalse(cachingProvider.isCached("f", 0, 50));
+        cachingProvider.size(new Query<>("f"));
+        Assert.assertTrue(cachingProvider.isCached("f", 0, 50));
+        Assert.assertFalse(cachingProvider.isCached("f", 50, 50));
+        Assert.assertFalse(cachingProvider.isCached("b", 0, 50));
+    }
+
+    private List<String> fetch(
+            PageCachingDataProvider<String, String> cachingProvider,
+            String filter) {
+        return fetch(cachingProvider, filter, filter);
+    }
+
+    private List<String> fetch(
+            PageCachingDataProvider<String, String> cachingProvider,
+            String filter, String convertedFilter) {
+        filterText.set(filter);
+        return cachingProvider
+                .fetch(new Query<>(0, 50, null, null, convertedFilter))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2000-2018 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.component.combobox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.Query;
+
+public class RefiningDataProviderTest {
+
+    private static final List<String> ITEMS = Arrays.asList("foo", "food",
+            "bar", "fool");
+
+    private final AtomicInteger backendQueries = new AtomicInteger();
+    private final AtomicReference<String> filterText = new AtomicReference<>();
+    private final DataProvider<String, String> dataProvider = DataProvider
+            .fromFilteringCallbacks(query -> {
+                backendQueries.incrementAndGet();
+                return ITEMS.stream()
+                        .filter(item -> item
+                                .contains(query.getFilter().orElse("")))
+                        .skip(query.getOffset()).limit(query.getLimit());
+            }, query -> {
+                backendQueries.incrementAndGet();
+                return (int) ITEMS.stream().filter(
+                        item -> item.contains(query.getFilter().orElse("")))
+                        .count();
+            });
+    private final RefiningDataProvider<String, String> refiningProvider = new RefiningDataProvider<>(
+            dataProvider, (item, filter) -> item.contains(filter),
+            filterText::get, () -> 3);
+
+    @Test
+    public void extendedFilter_previousFullyLoaded_filteredInMemory() {
+        Assert.assertEquals(Arrays.asList("foo", "food", "fool"),
+                query("fo", 50));
+        Assert.assertEquals(2, backendQueries.get());
+
+        Assert.assertEquals(Arrays.asList("food"), query("food", 50));
+        Assert.assertEquals(Arrays.asList("foo", "food", "fool"),
+                query("fo", 50));
+        Assert.assertEquals(2, backendQueries.get());
+    }
+
+    @Test
+    public void extendedFilter_previousPartiallyLoaded_queriedFromDataProvider() {
+        query("fo", 2);
+        query("foo", 50);
+        Assert.assertEquals(4, backendQueries.get());
+    }
+
+    @Test
+    public void moreItemsThanKept_queriedFromDataProvider() {
+        // All the four items match, so they are not kept
+        query("", 50);
+        query("f", 50);
+        Assert.assertEquals(4, backendQueries.get());
+
+        // "f" matches only three items, so they are kept
+        Assert.assertEquals(Arrays.asList("foo", "food", "fool"),
+                query("fo", 50));
+        Assert.assertEquals(4, backendQueries.get());
+    }
+
+    @Test
+    public void clear_queriedFromDataProvider() {
+        query("fo", 50);
+        refiningProvider.clear();
+        query("foo", 50);
+        Assert.assertEquals(4, backendQueries.get());
+    }
+
+    private List<String> query(String filter, int limit) {
+        filterText.set(filter);
+        Assert.assertEquals(
+                ITEMS.stream().filter(item -> item.contains(filter)).count(),
+                refiningProvider.size(new Query<>(filter)));
+        return refiningProvider.fetch(new Query<>(0, limit, null, null, filter))
+                .collect(Collectors.toList());
+    }
+}